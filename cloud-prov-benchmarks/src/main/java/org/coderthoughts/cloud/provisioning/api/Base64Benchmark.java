@@ -0,0 +1,196 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the table driven {@link Base64Encoder} with the byte at a time implementation it replaced and with
+ * {@code java.util.Base64}, on payloads from the size of a small bundle to that of a very large one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class Base64Benchmark {
+    @Param({"10240", "1048576", "52428800"})
+    int size;
+
+    private byte[] data;
+    private byte[] encoded;
+    private byte[] encodeBuffer;
+    private byte[] decodeBuffer;
+    private ByteArrayOutputStream legacyBuffer;
+
+    @Setup
+    public void setUp() {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+        encoded = Base64.encode(data);
+        encodeBuffer = new byte[encoded.length];
+        decodeBuffer = new byte[size];
+        legacyBuffer = new ByteArrayOutputStream(encoded.length);
+    }
+
+    @Benchmark
+    public byte[] encodeIntoArray() {
+        Base64.encode(data, 0, data.length, encodeBuffer, 0);
+        return encodeBuffer;
+    }
+
+    @Benchmark
+    public byte[] encodeToNewArray() {
+        return Base64.encode(data);
+    }
+
+    @Benchmark
+    public byte[] encodeLegacy() throws IOException {
+        legacyBuffer.reset();
+        LegacyBase64.encode(data, legacyBuffer);
+        return legacyBuffer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeJdkIntoArray() {
+        java.util.Base64.getEncoder().encode(data, encodeBuffer);
+        return encodeBuffer;
+    }
+
+    @Benchmark
+    public byte[] encodeJdkToNewArray() {
+        return java.util.Base64.getEncoder().encode(data);
+    }
+
+    @Benchmark
+    public byte[] decodeIntoArray() throws IOException {
+        Base64.decode(encoded, 0, encoded.length, decodeBuffer, 0);
+        return decodeBuffer;
+    }
+
+    @Benchmark
+    public byte[] decodeToNewArray() {
+        return Base64.decode(encoded);
+    }
+
+    @Benchmark
+    public byte[] decodeLegacy() throws IOException {
+        legacyBuffer.reset();
+        LegacyBase64.decode(encoded, legacyBuffer);
+        return legacyBuffer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] decodeJdkIntoArray() {
+        java.util.Base64.getDecoder().decode(encoded, decodeBuffer);
+        return decodeBuffer;
+    }
+
+    @Benchmark
+    public byte[] decodeJdkToNewArray() {
+        return java.util.Base64.getDecoder().decode(encoded);
+    }
+
+    /**
+     * The codec as it was before it was made table driven: one byte at a time into an output stream, checking
+     * every character for whitespace when decoding. Kept here as the baseline.
+     */
+    static class LegacyBase64 {
+        private static final Base64Encoder tables = new Base64Encoder();
+
+        static void encode(byte[] data, ByteArrayOutputStream out) {
+            byte[] table = tables.encodingTable;
+            int modulus = data.length % 3;
+            int dataLength = data.length - modulus;
+
+            for (int i = 0; i < dataLength; i += 3) {
+                int a1 = data[i] & 0xff;
+                int a2 = data[i + 1] & 0xff;
+                int a3 = data[i + 2] & 0xff;
+
+                out.write(table[(a1 >>> 2) & 0x3f]);
+                out.write(table[((a1 << 4) | (a2 >>> 4)) & 0x3f]);
+                out.write(table[((a2 << 2) | (a3 >>> 6)) & 0x3f]);
+                out.write(table[a3 & 0x3f]);
+            }
+
+            if (modulus == 1) {
+                int d1 = data[dataLength] & 0xff;
+                out.write(table[(d1 >>> 2) & 0x3f]);
+                out.write(table[(d1 << 4) & 0x3f]);
+                out.write('=');
+                out.write('=');
+            } else if (modulus == 2) {
+                int d1 = data[dataLength] & 0xff;
+                int d2 = data[dataLength + 1] & 0xff;
+                out.write(table[(d1 >>> 2) & 0x3f]);
+                out.write(table[((d1 << 4) | (d2 >>> 4)) & 0x3f]);
+                out.write(table[(d2 << 2) & 0x3f]);
+                out.write('=');
+            }
+        }
+
+        static void decode(byte[] data, ByteArrayOutputStream out) {
+            byte[] table = tables.decodingTable;
+            int end = data.length;
+            int i = 0;
+            int finish = end - 4;
+
+            while (i < finish) {
+                while (i < finish && ignore(data[i])) i++;
+                byte b1 = table[data[i++]];
+                while (i < finish && ignore(data[i])) i++;
+                byte b2 = table[data[i++]];
+                while (i < finish && ignore(data[i])) i++;
+                byte b3 = table[data[i++]];
+                while (i < finish && ignore(data[i])) i++;
+                byte b4 = table[data[i++]];
+
+                out.write((b1 << 2) | (b2 >> 4));
+                out.write((b2 << 4) | (b3 >> 2));
+                out.write((b3 << 6) | b4);
+            }
+
+            byte b1 = table[data[end - 4]];
+            byte b2 = table[data[end - 3]];
+            byte b3 = table[data[end - 2]];
+            byte b4 = table[data[end - 1]];
+            out.write((b1 << 2) | (b2 >> 4));
+            if (data[end - 2] != '=')
+                out.write((b2 << 4) | (b3 >> 2));
+            if (data[end - 1] != '=')
+                out.write((b3 << 6) | b4);
+        }
+
+        private static boolean ignore(byte c) {
+            return c == '\n' || c == '\r' || c == '\t' || c == ' ';
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+
+/**
+ * An in-memory stand-in for an OSGi framework, just enough to drive the deployment code in a benchmark.
+ * Bundles can be installed, updated, started, stopped and uninstalled, and bundle listeners are notified
+ * synchronously. Installing reads the content to the end, but doesn't keep it. Service lookups find nothing.
+ * <p>
+ * The framework objects are dynamic proxies, methods that aren't implemented return {@code null}, zero or
+ * {@code false}.
+ */
+public class StubFramework {
+    private final Map<Long, Bundle> bundles = new ConcurrentSkipListMap<Long, Bundle>();
+    private final List<BundleListener> listeners = new CopyOnWriteArrayList<BundleListener>();
+    private final AtomicLong nextBundleID = new AtomicLong();
+    private final BundleContext bundleContext;
+
+    public StubFramework() {
+        bundleContext = proxy(BundleContext.class, new ContextHandler());
+    }
+
+    public BundleContext getBundleContext() {
+        return bundleContext;
+    }
+
+    /**
+     * Add a bundle without content, e.g. to populate the framework before a benchmark.
+     */
+    public Bundle addBundle(String location, String symbolicName, String version) {
+        BundleHandler handler = new BundleHandler(nextBundleID.getAndIncrement(), location, symbolicName, version);
+        Bundle bundle = proxy(Bundle.class, handler);
+        handler.self = bundle;
+        bundles.put(handler.id, bundle);
+        fire(BundleEvent.INSTALLED, bundle);
+        return bundle;
+    }
+
+    /**
+     * @return A service reference with the given properties, not backed by any registration.
+     */
+    public static ServiceReference newServiceReference(final Map<String, Object> properties) {
+        return proxy(ServiceReference.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("getProperty"))
+                    return properties.get(args[0]);
+                if (name.equals("getPropertyKeys"))
+                    return properties.keySet().toArray(new String[properties.size()]);
+                return handleObjectMethod(proxy, method, args);
+            }
+        });
+    }
+
+    private void fire(int type, Bundle bundle) {
+        BundleEvent event = new BundleEvent(type, bundle);
+        for (BundleListener listener : listeners) {
+            listener.bundleChanged(event);
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        try {
+            byte[] buf = new byte[8192];
+            while (in.read(buf) != -1);
+        } finally {
+            in.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(StubFramework.class.getClassLoader(), new Class[] {type}, handler);
+    }
+
+    private static Object handleObjectMethod(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (name.equals("equals"))
+            return proxy == args[0];
+        if (name.equals("hashCode"))
+            return System.identityHashCode(proxy);
+        if (name.equals("toString"))
+            return "Stub" + method.getDeclaringClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+        return defaultValue(method.getReturnType());
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class)
+            return false;
+        if (type == int.class)
+            return 0;
+        if (type == long.class)
+            return 0L;
+        return null;
+    }
+
+    private class ContextHandler implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("getBundles"))
+                return bundles.values().toArray(new Bundle[0]);
+            if (name.equals("getBundle") && args != null)
+                return bundles.get(args[0]);
+            if (name.equals("installBundle")) {
+                Bundle bundle = addBundle((String) args[0], null, null);
+                if (args.length > 1 && args[1] != null)
+                    drain((InputStream) args[1]);
+                return bundle;
+            }
+            if (name.equals("addBundleListener")) {
+                listeners.add((BundleListener) args[0]);
+                return null;
+            }
+            if (name.equals("removeBundleListener")) {
+                listeners.remove(args[0]);
+                return null;
+            }
+            if (name.equals("createFilter"))
+                return FrameworkUtil.createFilter((String) args[0]);
+            return handleObjectMethod(proxy, method, args);
+        }
+    }
+
+    private class BundleHandler implements InvocationHandler {
+        private final long id;
+        private final String location;
+        private final String symbolicName;
+        private final Version version;
+        private volatile int state = Bundle.INSTALLED;
+        private volatile long lastModified = System.currentTimeMillis();
+        private Bundle self;
+
+        BundleHandler(long id, String location, String symbolicName, String version) {
+            this.id = id;
+            this.location = location;
+            this.symbolicName = symbolicName;
+            this.version = version != null ? Version.parseVersion(version) : Version.emptyVersion;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("getBundleId"))
+                return id;
+            if (name.equals("getLocation"))
+                return location;
+            if (name.equals("getSymbolicName"))
+                return symbolicName;
+            if (name.equals("getVersion"))
+                return version;
+            if (name.equals("getState"))
+                return state;
+            if (name.equals("getLastModified"))
+                return lastModified;
+            if (name.equals("getHeaders"))
+                return new Hashtable<String, String>();
+            if (name.equals("getRegisteredServices"))
+                return null;
+            if (name.equals("start")) {
+                state = Bundle.ACTIVE;
+                fire(BundleEvent.STARTED, self);
+                return null;
+            }
+            if (name.equals("stop")) {
+                state = Bundle.RESOLVED;
+                fire(BundleEvent.STOPPED, self);
+                return null;
+            }
+            if (name.equals("update")) {
+                if (args != null && args[0] != null)
+                    drain((InputStream) args[0]);
+                lastModified++;
+                fire(BundleEvent.UPDATED, self);
+                return null;
+            }
+            if (name.equals("uninstall")) {
+                state = Bundle.UNINSTALLED;
+                bundles.remove(id);
+                fire(BundleEvent.UNINSTALLED, self);
+                return null;
+            }
+            return handleObjectMethod(proxy, method, args);
+        }
+    }
+}
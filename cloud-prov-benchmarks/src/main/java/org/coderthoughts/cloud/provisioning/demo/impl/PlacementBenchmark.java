@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.coderthoughts.cloud.framework.service.api.OSGiFramework;
+import org.coderthoughts.cloud.provisioning.benchmarks.StubFramework;
+import org.coderthoughts.cloud.provisioning.demo.impl.Candidate.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Measures picking target frameworks out of large sets of synthetic candidates, both through
+ * {@link DemoProvisionerBase#getMostSuitableFramework} and with the {@link PlacementEngines} on their own.
+ * Suitability indicators are drawn from a small range so that there are many ties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PlacementBenchmark {
+    private static final DemoProvisionerBase.DeploymentType TYPE = new DemoProvisionerBase.DeploymentType("BENCHMARK");
+    private static final String INDICATOR_PROPERTY = "benchmark.indicator";
+
+    @Param({"100", "1000", "10000"})
+    int candidateCount;
+
+    @Param({"3"})
+    int replicas;
+
+    private BenchmarkProvisioner provisioner;
+    private List<ServiceReference> frameworks;
+    private List<Candidate> candidates;
+    private PlacementEngine byIndicator;
+    private PlacementEngine spread;
+    private PlacementEngine binPacking;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        frameworks = new ArrayList<ServiceReference>(candidateCount);
+        candidates = new ArrayList<Candidate>(candidateCount);
+        for (int i=0; i < candidateCount; i++) {
+            long indicator = random.nextInt(10);
+            Map<String, Object> props = new HashMap<String, Object>();
+            props.put("endpoint.framework.uuid", "framework-" + i);
+            props.put(DemoProvisionerBase.FRAMEWORK_IP_PROPERTY, "10.0." + (i / 256) + "." + (i % 256));
+            props.put(INDICATOR_PROPERTY, indicator);
+            ServiceReference ref = StubFramework.newServiceReference(props);
+            frameworks.add(ref);
+
+            Candidate candidate = new Candidate(ref, indicator);
+            candidate.set(Resource.AVAILABLE_MEMORY, random.nextInt(4096) * 1024L * 1024L);
+            candidate.set(Resource.CPU_LOAD, random.nextInt(100));
+            candidate.set(Resource.REPLICA_COUNT, random.nextInt(4));
+            candidates.add(candidate);
+        }
+
+        byIndicator = PlacementEngines.byIndicator();
+        Map<Resource, Double> weights = new EnumMap<Resource, Double>(Resource.class);
+        weights.put(Resource.AVAILABLE_MEMORY, 1.0);
+        weights.put(Resource.CPU_LOAD, 0.5);
+        weights.put(Resource.REPLICA_COUNT, 0.5);
+        spread = PlacementEngines.spread(weights);
+        binPacking = PlacementEngines.binPacking(Resource.AVAILABLE_MEMORY, 512 * 1024L * 1024L);
+
+        provisioner = new BenchmarkProvisioner(new StubFramework());
+        provisioner.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        provisioner.stop();
+    }
+
+    @Benchmark
+    public ServiceReference getMostSuitableFramework() {
+        return provisioner.getMostSuitableFramework(TYPE, frameworks);
+    }
+
+    @Benchmark
+    public List<ServiceReference> getMostSuitableFrameworks() {
+        return provisioner.getMostSuitableFrameworks(TYPE, frameworks, replicas);
+    }
+
+    @Benchmark
+    public List<Candidate> placeByIndicator() {
+        return byIndicator.place(candidates, replicas);
+    }
+
+    @Benchmark
+    public List<Candidate> placeSpread() {
+        return spread.place(candidates, replicas);
+    }
+
+    @Benchmark
+    public List<Candidate> placeBinPacking() {
+        return binPacking.place(candidates, replicas);
+    }
+
+    // Scores frameworks from a service property, so that scoring costs no remote calls
+    static class BenchmarkProvisioner extends DemoProvisionerBase {
+        BenchmarkProvisioner(StubFramework framework) {
+            super(framework.getBundleContext());
+        }
+
+        @Override
+        protected long getSuitabilityIndicator(DeploymentType type, OSGiFramework fw, ServiceReference ref) {
+            return (Long) ref.getProperty(INDICATOR_PROPERTY);
+        }
+    }
+}
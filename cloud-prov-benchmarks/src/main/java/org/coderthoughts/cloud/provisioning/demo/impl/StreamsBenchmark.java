@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures reading bundle content with {@link Streams}, from memory and from a file, with and without a size hint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StreamsBenchmark {
+    @Param({"10240", "1048576", "20971520"})
+    int size;
+
+    @Param({"memory", "file"})
+    String source;
+
+    private byte[] data;
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+
+        file = File.createTempFile("streams-benchmark", ".jar");
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public byte[] suck() throws IOException {
+        return Streams.suck(open());
+    }
+
+    @Benchmark
+    public byte[] suckSized() throws IOException {
+        return Streams.suck(open(), size, null);
+    }
+
+    @Benchmark
+    public byte[] suckURL() throws IOException {
+        // Files go through their channel, memory content through a pre-sized array
+        if ("file".equals(source))
+            return Streams.suck(file.toURI().toURL().openConnection(), null);
+        return Streams.suck(new ByteArrayInputStream(data), size, null);
+    }
+
+    @Benchmark
+    public int pump() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        InputStream is = open();
+        try {
+            Streams.pump(is, out);
+        } finally {
+            is.close();
+        }
+        return out.size();
+    }
+
+    private InputStream open() throws IOException {
+        if ("file".equals(source))
+            return new FileInputStream(file);
+        return new ByteArrayInputStream(data);
+    }
+}
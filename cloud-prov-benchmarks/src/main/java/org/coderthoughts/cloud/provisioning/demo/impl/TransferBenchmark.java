@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.coderthoughts.cloud.provisioning.api.RemoteDeployer;
+import org.coderthoughts.cloud.provisioning.benchmarks.StubFramework;
+import org.coderthoughts.cloud.provisioning.remsvc.impl.RemoteDeployerBenchmark;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Compares the raw and base64 transfer encodings, with and without deflate, for a chunked bundle upload with
+ * {@link BundleUploader}. The deployer runs in the same JVM, so this measures the CPU cost of each encoding on
+ * both ends, while the {@code bytesSent} counter shows how much would go over the wire.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TransferBenchmark {
+    @Param({RemoteDeployer.TRANSFER_ENCODING_RAW, RemoteDeployer.TRANSFER_ENCODING_BASE64})
+    String transferEncoding;
+
+    @Param({RemoteDeployer.CONTENT_ENCODING_IDENTITY, RemoteDeployer.CONTENT_ENCODING_DEFLATE})
+    String contentEncoding;
+
+    @Param({"1048576", "20971520"})
+    int size;
+
+    private byte[] data;
+    private BundleUploader uploader;
+    private long sent;
+
+    @Setup
+    public void setUp() {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+
+        final RemoteDeployer target = RemoteDeployerBenchmark.openRemoteDeployer(new StubFramework());
+        RemoteDeployer counting = (RemoteDeployer) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {RemoteDeployer.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (args != null) {
+                    for (Object arg : args) {
+                        if (arg instanceof byte[])
+                            sent += ((byte[]) arg).length;
+                    }
+                }
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put(RemoteDeployer.TRANSFER_ENCODINGS, new String[] {transferEncoding});
+        props.put(RemoteDeployer.CONTENT_ENCODINGS, new String[] {contentEncoding});
+        ServiceReference rdRef = StubFramework.newServiceReference(props);
+        uploader = new BundleUploader(counting, rdRef, new ChunkSizer());
+    }
+
+    @Benchmark
+    public long upload(BytesSent counter) throws Exception {
+        sent = 0;
+        long id = uploader.upload("file:/bundles/transfer.jar", new ByteArrayInputStream(data));
+        counter.bytesSent += sent;
+        return id;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class BytesSent {
+        public long bytesSent;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesSent = 0;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.remsvc.impl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.coderthoughts.cloud.provisioning.api.Base64;
+import org.coderthoughts.cloud.provisioning.api.BundleInventory;
+import org.coderthoughts.cloud.provisioning.api.RemoteDeployer;
+import org.coderthoughts.cloud.provisioning.benchmarks.StubFramework;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleException;
+
+/**
+ * Measures the {@link RemoteDeployerImpl} calls made for every deployment against a framework holding many bundles.
+ * The framework is a {@link StubFramework}, so installs only cost what the deployer itself does with the content.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RemoteDeployerBenchmark {
+    private static final String INSTALL_LOCATION = "file:/bundles/benchmark.jar";
+
+    @Param({"100", "1000", "5000"})
+    int bundleCount;
+
+    @Param({"1048576"})
+    int payloadSize;
+
+    private RemoteDeployerImpl remoteDeployer;
+    private String[] locations;
+    private int next;
+    private byte[] payload;
+    private byte[] base64Payload;
+    private long generation;
+
+    @Setup
+    public void setUp() {
+        StubFramework framework = new StubFramework();
+        locations = new String[bundleCount];
+        for (int i=0; i < bundleCount; i++) {
+            locations[i] = "file:/bundles/bundle-" + i + ".jar";
+            framework.addBundle(locations[i], "bundle." + i, "1.0.0");
+        }
+
+        remoteDeployer = new RemoteDeployerImpl(framework.getBundleContext());
+        remoteDeployer.open();
+
+        payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        base64Payload = Base64.encode(payload);
+        generation = remoteDeployer.getInventory().getGeneration();
+    }
+
+    @TearDown
+    public void tearDown() {
+        remoteDeployer.close();
+    }
+
+    /**
+     * Create a deployer on the given framework for the benchmarks in other packages.
+     */
+    public static RemoteDeployer openRemoteDeployer(StubFramework framework) {
+        RemoteDeployerImpl rd = new RemoteDeployerImpl(framework.getBundleContext());
+        rd.open();
+        return rd;
+    }
+
+    @Benchmark
+    public long getBundleID() {
+        String location = locations[next++ % locations.length];
+        return remoteDeployer.getBundleID(location);
+    }
+
+    @Benchmark
+    public long getBundleIDMissing() {
+        return remoteDeployer.getBundleID("file:/bundles/missing.jar");
+    }
+
+    @Benchmark
+    public long[] listBundleIDs() {
+        return remoteDeployer.listBundleIDs();
+    }
+
+    @Benchmark
+    public BundleInventory getInventory() {
+        return remoteDeployer.getInventory();
+    }
+
+    @Benchmark
+    public BundleInventory getInventorySince() {
+        return remoteDeployer.getInventorySince(generation);
+    }
+
+    @Benchmark
+    public long installBundleRaw() throws BundleException {
+        return remoteDeployer.installBundleRaw(INSTALL_LOCATION, payload);
+    }
+
+    @Benchmark
+    public long installBundleBase64() throws BundleException {
+        return remoteDeployer.installBundle(INSTALL_LOCATION, base64Payload);
+    }
+}
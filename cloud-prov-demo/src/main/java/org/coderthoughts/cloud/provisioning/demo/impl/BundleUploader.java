@@ -0,0 +1,224 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+
+import org.coderthoughts.cloud.provisioning.api.Base64;
+import org.coderthoughts.cloud.provisioning.api.ContentEncoding;
+import org.coderthoughts.cloud.provisioning.api.RemoteDeployer;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Streams bundles to a {@link RemoteDeployer} in chunks, so that a bundle is never held in memory as a whole.
+ * The content is sent raw if the deployer advertises support for it, otherwise base64 encoded.
+ * <p>
+ * If the deployer also advertises the deflate content encoding the content is compressed first, at a level
+ * picked from the throughput measured on the link so far. Slow links get the best compression, fast links
+ * none at all since there compressing would take longer than sending.
+ */
+class BundleUploader {
+    private final RemoteDeployer remoteDeployer;
+    private final ChunkSizer chunkSizer;
+    private final boolean raw;
+    private final int compressionLevel;
+
+    BundleUploader(RemoteDeployer rd, ServiceReference rdRef, ChunkSizer cs) {
+        remoteDeployer = rd;
+        chunkSizer = cs;
+        raw = supportsTransferEncoding(rdRef, RemoteDeployer.TRANSFER_ENCODING_RAW);
+        compressionLevel = supportsContentEncoding(rdRef, RemoteDeployer.CONTENT_ENCODING_DEFLATE) ?
+                getCompressionLevel(cs.getThroughput()) : Deflater.NO_COMPRESSION;
+    }
+
+    String getTransferEncoding() {
+        return raw ? RemoteDeployer.TRANSFER_ENCODING_RAW : RemoteDeployer.TRANSFER_ENCODING_BASE64;
+    }
+
+    /**
+     * @return The deflate level to compress content with for this uploader, {@link Deflater#NO_COMPRESSION}
+     * if content should be sent as is.
+     */
+    int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    // Thresholds in bytes per millisecond, roughly where deflating at the level costs about as much time
+    // as it saves on the link.
+    static int getCompressionLevel(double throughput) {
+        if (throughput < 0)
+            return Deflater.DEFAULT_COMPRESSION;
+        if (throughput < 1024)
+            return Deflater.BEST_COMPRESSION;
+        if (throughput < 10 * 1024)
+            return Deflater.DEFAULT_COMPRESSION;
+        if (throughput < 50 * 1024)
+            return Deflater.BEST_SPEED;
+        return Deflater.NO_COMPRESSION;
+    }
+
+    /**
+     * @return Whether the payload, in the transfer encoding of this uploader, is no bigger than a single chunk.
+     */
+    boolean fitsInOneChunk(byte[] payload) {
+        int size = chunkSizer.getChunkSize();
+        return payload.length <= (raw ? size : size / 3 * 4);
+    }
+
+    /**
+     * Upload a bundle, reading it from the stream as it goes. The stream is closed afterwards.
+     */
+    long upload(String location, InputStream is) throws IOException, BundleException {
+        long start = System.nanoTime();
+        long sent = 0;
+
+        String sessionID;
+        if (compressionLevel != Deflater.NO_COMPRESSION) {
+            is = compress(is, compressionLevel);
+            sessionID = remoteDeployer.beginEncodedInstall(location, RemoteDeployer.CONTENT_ENCODING_DEFLATE);
+        } else {
+            sessionID = remoteDeployer.beginInstall(location);
+        }
+        try {
+            byte[] buffer = new byte[chunkSizer.getChunkSize()];
+            ByteArrayOutputStream encoded = raw ? null : new ByteArrayOutputStream();
+            while (true) {
+                int size = chunkSizer.getChunkSize();
+                if (buffer.length < size)
+                    buffer = new byte[size];
+
+                int length = Streams.fill(is, buffer, size);
+                if (length == 0)
+                    break;
+
+                byte[] chunk;
+                if (raw) {
+                    chunk = length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+                } else {
+                    encoded.reset();
+                    Base64.encode(buffer, 0, length, encoded);
+                    chunk = encoded.toByteArray();
+                }
+                sendChunk(sessionID, chunk, length);
+                sent += chunk.length;
+
+                if (length < size)
+                    break;
+            }
+            long id = commit(sessionID, location, sent, start);
+            sessionID = null;
+            return id;
+        } finally {
+            is.close();
+            if (sessionID != null)
+                remoteDeployer.abortInstall(sessionID);
+        }
+    }
+
+    /**
+     * Upload a bundle from a payload that is already in the transfer encoding of this uploader.
+     * @param contentEncoding The content encoding applied to the payload before the transfer encoding.
+     */
+    long upload(String location, byte[] payload, String contentEncoding) throws BundleException {
+        long start = System.nanoTime();
+
+        String sessionID = ContentEncoding.isIdentity(contentEncoding) ?
+                remoteDeployer.beginInstall(location) : remoteDeployer.beginEncodedInstall(location, contentEncoding);
+        try {
+            int offset = 0;
+            while (offset < payload.length) {
+                // Chunk sizes are multiples of 3, so base64 payloads can be cut at the matching multiple
+                // of 4 and each chunk still decodes on its own.
+                int size = chunkSizer.getChunkSize();
+                int length = Math.min(raw ? size : size / 3 * 4, payload.length - offset);
+                byte[] chunk = length == payload.length ? payload : Arrays.copyOfRange(payload, offset, offset + length);
+                sendChunk(sessionID, chunk, raw ? length : length / 4 * 3);
+                offset += length;
+            }
+            long id = commit(sessionID, location, payload.length, start);
+            sessionID = null;
+            return id;
+        } finally {
+            if (sessionID != null)
+                remoteDeployer.abortInstall(sessionID);
+        }
+    }
+
+    private void sendChunk(String sessionID, byte[] chunk, int contentLength) {
+        long start = System.nanoTime();
+        if (raw)
+            remoteDeployer.appendRawChunk(sessionID, chunk);
+        else
+            remoteDeployer.appendChunk(sessionID, chunk);
+        chunkSizer.recordChunk(contentLength, System.nanoTime() - start);
+    }
+
+    private long commit(String sessionID, String location, long sent, long start) throws BundleException {
+        long id = remoteDeployer.commitInstall(sessionID);
+        System.out.println("*** Uploaded " + location + ": " + sent + " bytes " + getTransferEncoding() +
+                " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        return id;
+    }
+
+    private static InputStream compress(InputStream is, int level) {
+        final Deflater deflater = new Deflater(level);
+        return new DeflaterInputStream(is, deflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // Not done by the stream itself when it's given a deflater
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    static boolean supportsTransferEncoding(ServiceReference rdRef, String encoding) {
+        Boolean supported = isAdvertised(rdRef.getProperty(RemoteDeployer.TRANSFER_ENCODINGS), encoding);
+        if (supported != null)
+            return supported;
+
+        // Deployers that don't advertise anything only understand base64
+        return RemoteDeployer.TRANSFER_ENCODING_BASE64.equals(encoding);
+    }
+
+    static boolean supportsContentEncoding(ServiceReference rdRef, String encoding) {
+        Boolean supported = isAdvertised(rdRef.getProperty(RemoteDeployer.CONTENT_ENCODINGS), encoding);
+        if (supported != null)
+            return supported;
+
+        // Deployers that don't advertise anything only take content as is
+        return ContentEncoding.isIdentity(encoding);
+    }
+
+    private static Boolean isAdvertised(Object encodings, String encoding) {
+        if (encodings instanceof String)
+            return encoding.equals(encodings);
+        if (encodings instanceof String [])
+            return Arrays.asList((String []) encodings).contains(encoding);
+        if (encodings instanceof Collection)
+            return ((Collection<?>) encodings).contains(encoding);
+        return null;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import org.osgi.framework.ServiceReference;
+
+/**
+ * A framework that is a candidate for a deployment, described by its suitability indicator and by the
+ * resources known about it. A {@link PlacementEngine} picks frameworks based on this description.
+ */
+public class Candidate {
+    public enum Resource {
+        AVAILABLE_MEMORY(true),
+        CPU_LOAD(false),
+        BUNDLE_COUNT(false),
+        REPLICA_COUNT(false);
+
+        private final boolean higherIsBetter;
+
+        Resource(boolean higherIsBetter) {
+            this.higherIsBetter = higherIsBetter;
+        }
+
+        public boolean isHigherBetter() {
+            return higherIsBetter;
+        }
+    }
+
+    private final ServiceReference reference;
+    private final long indicator;
+    private final long[] values = new long[Resource.values().length];
+    private final boolean[] present = new boolean[values.length];
+
+    // Position in the list of candidates and score, maintained by the placement engine
+    int index;
+    double score;
+
+    /**
+     * @param ref The framework.
+     * @param indicator The suitability indicator of the framework, negative if it is not suitable at all.
+     */
+    public Candidate(ServiceReference ref, long indicator) {
+        reference = ref;
+        this.indicator = indicator;
+    }
+
+    public ServiceReference getReference() {
+        return reference;
+    }
+
+    public long getIndicator() {
+        return indicator;
+    }
+
+    public Candidate set(Resource resource, long value) {
+        values[resource.ordinal()] = value;
+        present[resource.ordinal()] = true;
+        return this;
+    }
+
+    public boolean has(Resource resource) {
+        return present[resource.ordinal()];
+    }
+
+    public long get(Resource resource) {
+        return values[resource.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("indicator=").append(indicator);
+        for (Resource resource : Resource.values()) {
+            if (has(resource))
+                sb.append(", ").append(resource).append('=').append(get(resource));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the size of the chunks used to upload a bundle to a particular framework. The size
+ * is adjusted after every chunk so that sending a chunk takes roughly {@link #TARGET_MILLIS}
+ * on the measured throughput of the link.
+ */
+class ChunkSizer {
+    static final int MIN_CHUNK_SIZE = 15 * 1024;
+    static final int MAX_CHUNK_SIZE = 3 * 1024 * 1024;
+    static final int INITIAL_CHUNK_SIZE = 63 * 1024;
+    static final long TARGET_MILLIS = 500;
+
+    private int chunkSize = INITIAL_CHUNK_SIZE;
+    private double throughput = -1;
+
+    // Always a multiple of 3 so that a base64 encoded chunk never contains padding
+    synchronized int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return The smoothed throughput of the link in bytes per millisecond, or -1 if no chunk was sent yet.
+     */
+    synchronized double getThroughput() {
+        return throughput;
+    }
+
+    synchronized void recordChunk(int bytes, long nanos) {
+        double bytesPerMilli = bytes / Math.max(1.0, nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+        throughput = throughput < 0 ? bytesPerMilli : (throughput + bytesPerMilli) / 2;
+        long ideal = (long) (bytesPerMilli * TARGET_MILLIS);
+
+        // Move half way towards the ideal size to smooth out jitter on the link
+        long size = (chunkSize + ideal) / 2;
+        size = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size));
+        chunkSize = (int) (size - (size % 3));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.coderthoughts.cloud.provisioning.api.Base64;
+import org.coderthoughts.cloud.provisioning.api.BundleDelta;
+import org.coderthoughts.cloud.provisioning.api.ContentDigest;
+import org.coderthoughts.cloud.provisioning.api.EntryDigests;
+import org.coderthoughts.cloud.provisioning.api.RebuiltJar;
+import org.coderthoughts.cloud.provisioning.api.RemoteDeployer;
+
+/**
+ * Computes the {@link BundleDelta} between a bundle installed on a framework, as described by its
+ * {@link RemoteDeployer#getEntryDigests(long)}, and a new version of the bundle jar. The target rebuilds the
+ * bundle as a {@link RebuiltJar}, which is written here as well to tell the digest the target will check.
+ */
+class DeltaBuilder {
+    // Deltas holding more than this share of the bundle content aren't worth the extra round trip
+    static final int MAX_DELTA_PERCENT = 50;
+
+    private DeltaBuilder() {}
+
+    /**
+     * @param jar The new version of the bundle, closed afterwards.
+     * @param installed The entry digests of the installed version.
+     * @param baseSha256 The content digest of the installed version.
+     * @param transferEncoding The transfer encoding to send the entries in.
+     * @return The delta, or {@code null} if sending the whole bundle is about as cheap or the jar doesn't have
+     * its manifest first.
+     */
+    static BundleDelta create(InputStream jar, EntryDigests installed, String baseSha256, String transferEncoding) throws IOException {
+        Map<String, String> remaining = installed.toMap();
+        List<String> entries = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        List<byte[]> data = new ArrayList<byte[]>();
+        long total = 0;
+        long changed = 0;
+
+        DigestSink rebuiltDigest = new DigestSink();
+        RebuiltJar rebuilt = new RebuiltJar(rebuiltDigest);
+        ZipInputStream zis = new ZipInputStream(jar);
+        try {
+            MessageDigest md = ContentDigest.newDigest();
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.isDirectory())
+                    continue;
+                // The rebuilt jar keeps the order of the entries, frameworks may need the manifest first
+                if (!entries.isEmpty() && JarFile.MANIFEST_NAME.equals(entry.getName()))
+                    return null;
+
+                // Entries need to be read anyway to digest them, keep them in case they changed
+                byte[] content = Streams.suck(new EntryInputStream(zis), entry.getSize(), null);
+                entries.add(entry.getName());
+                rebuilt.addEntry(entry.getName(), content);
+                total += content.length;
+                md.reset();
+                String digest = ContentDigest.toHex(md.digest(content));
+                if (!digest.equals(remaining.remove(entry.getName()))) {
+                    names.add(entry.getName());
+                    data.add(RemoteDeployer.TRANSFER_ENCODING_RAW.equals(transferEncoding) ? content : Base64.encode(content));
+                    changed += content.length;
+                }
+            }
+        } finally {
+            zis.close();
+        }
+        rebuilt.close();
+
+        if (changed > total * MAX_DELTA_PERCENT / 100)
+            return null;
+
+        BundleDelta delta = new BundleDelta(baseSha256, ContentDigest.toHex(rebuiltDigest.md.digest()));
+        delta.setTransferEncoding(transferEncoding);
+        delta.setEntries(entries.toArray(new String[entries.size()]));
+        delta.setEntryNames(names.toArray(new String[names.size()]));
+        delta.setEntryData(data.toArray(new byte[data.size()][]));
+        // What's left of the installed entries isn't in the new version
+        delta.setRemovedEntries(remaining.keySet().toArray(new String[remaining.size()]));
+        return delta;
+    }
+
+    // Only the digest of the rebuilt jar is needed, not the jar itself
+    private static class DigestSink extends OutputStream {
+        private final MessageDigest md = ContentDigest.newDigest();
+
+        @Override
+        public void write(int b) {
+            md.update((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            md.update(b, off, len);
+        }
+    }
+
+    // Reads up to the end of the current zip entry, closing it only moves on to the next entry
+    private static class EntryInputStream extends InputStream {
+        private final ZipInputStream zis;
+
+        EntryInputStream(ZipInputStream zis) {
+            this.zis = zis;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return zis.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return zis.read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            zis.closeEntry();
+        }
+    }
+}
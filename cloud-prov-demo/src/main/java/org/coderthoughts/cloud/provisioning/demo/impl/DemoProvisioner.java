@@ -13,7 +13,11 @@
  */
 package org.coderthoughts.cloud.provisioning.demo.impl;
 
+import java.util.EnumMap;
+import java.util.Map;
+
 import org.coderthoughts.cloud.framework.service.api.OSGiFramework;
+import org.coderthoughts.cloud.provisioning.demo.impl.Candidate.Resource;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
@@ -25,31 +29,49 @@ public class DemoProvisioner extends DemoProvisionerBase {
 
     private static final DeploymentType WEB = new DeploymentType("WEB");
     private static final DeploymentType SERVICE = new DeploymentType("SERVICE");
+    private static final int SERVICE_REPLICAS = 2;
 
-    DemoProvisioner(BundleContext context) {
-        super(context);
+    // The web frontend goes on the web hosts, the service anywhere else
+    private static final String WEB_HOSTS = "(org.coderthoughts.framework.ip=web-*)";
+    private static final String SERVICE_HOSTS = "(!" + WEB_HOSTS + ")";
+
+    // Spread the service over the frameworks with the most free memory and the fewest other deployments
+    private static final PlacementEngine SERVICE_PLACEMENT;
+    static {
+        Map<Resource, Double> weights = new EnumMap<Resource, Double>(Resource.class);
+        weights.put(Resource.AVAILABLE_MEMORY, 1.0);
+        weights.put(Resource.REPLICA_COUNT, 0.5);
+        SERVICE_PLACEMENT = PlacementEngines.spread(weights);
     }
 
-    @Override
-    protected void topologyChanged() {
-        // Deploy the web frontend
-        if (getDeployments(WEB).size() == 0)
-            addDeployment(WEB);
+    DemoProvisioner(BundleContext context) {
+        super(context);
 
-        // Deploy the Service two times.
-        if (getDeployments(SERVICE).size() < 2)
-            addDeployment(SERVICE);
+        // Memory usage changes quicker than most other variables
+        setFrameworkVariableTTL(OSGiFramework.FV_AVAILABLE_MEMORY, 10000);
 
+        // Deploy the web frontend once and the Service two times.
+        try {
+            setDesiredState(WEB, new DeploymentSpec(1, context.createFilter(WEB_HOSTS), WEB_BUNDLES));
+            setDesiredState(SERVICE, new DeploymentSpec(SERVICE_REPLICAS, context.createFilter(SERVICE_HOSTS), SERVICE_BUNDLES));
+        } catch (InvalidSyntaxException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     @Override
-    protected String [] getDeploymentBundles(DeploymentType type, ServiceReference target) {
-        if (WEB.equals(type))
-            return WEB_BUNDLES;
-        else if (SERVICE.equals(type))
-            return SERVICE_BUNDLES;
+    protected Candidate getCandidate(DeploymentType type, OSGiFramework fw, ServiceReference fwRef) throws Exception {
+        Candidate candidate = super.getCandidate(type, fw, fwRef);
+        if (SERVICE.equals(type) && candidate.getIndicator() >= 0)
+            candidate.set(Resource.AVAILABLE_MEMORY, Long.parseLong(getFrameworkVariable(fw, fwRef, OSGiFramework.FV_AVAILABLE_MEMORY)));
+        return candidate;
+    }
 
-        throw new IllegalStateException("Unregognized deployment type: " + type);
+    @Override
+    protected PlacementEngine getPlacementEngine(DeploymentType type) {
+        if (SERVICE.equals(type))
+            return SERVICE_PLACEMENT;
+        return super.getPlacementEngine(type);
     }
 
     @Override
@@ -63,16 +85,11 @@ public class DemoProvisioner extends DemoProvisionerBase {
     }
 
     private long getServiceSuitabilityIndicator(OSGiFramework fw, ServiceReference fwRef) throws Exception {
-        // Don't deploy the service where the web frontend goes
-        if (getWebSuitabilityIndicator(fwRef) > 0)
-            return -1;
-
-        return Long.parseLong(fw.getFrameworkVariable(OSGiFramework.FV_AVAILABLE_MEMORY));
+        return Long.parseLong(getFrameworkVariable(fw, fwRef, OSGiFramework.FV_AVAILABLE_MEMORY));
     }
 
     private long getWebSuitabilityIndicator(ServiceReference fwRef) throws InvalidSyntaxException {
-        String fixedFrameworkHost = "web-*";
-        Filter filter = getBundleContext().createFilter("(org.coderthoughts.framework.ip=" + fixedFrameworkHost +")");
+        Filter filter = getBundleContext().createFilter(WEB_HOSTS);
         return filter.match(fwRef) ? Long.MAX_VALUE : Long.MIN_VALUE;
     }
 }
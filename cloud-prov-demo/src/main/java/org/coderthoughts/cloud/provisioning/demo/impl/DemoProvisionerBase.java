@@ -14,21 +14,32 @@
 package org.coderthoughts.cloud.provisioning.demo.impl;
 
 import java.io.IOException;
-import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.coderthoughts.cloud.framework.service.api.OSGiFramework;
-import org.coderthoughts.cloud.provisioning.api.Base64;
+import org.coderthoughts.cloud.provisioning.api.BundleDelta;
+import org.coderthoughts.cloud.provisioning.api.BundleInfo;
+import org.coderthoughts.cloud.provisioning.api.DeploymentRequest;
+import org.coderthoughts.cloud.provisioning.api.DeploymentResult;
+import org.coderthoughts.cloud.provisioning.api.EntryDigests;
 import org.coderthoughts.cloud.provisioning.api.RemoteDeployer;
+import org.coderthoughts.cloud.provisioning.demo.impl.InventoryCache.Inventory;
+import org.coderthoughts.cloud.provisioning.demo.impl.PayloadCache.Payload;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Filter;
@@ -37,30 +48,83 @@ import org.osgi.framework.ServiceReference;
 import org.osgi.util.tracker.ServiceTracker;
 
 public abstract class DemoProvisionerBase  {
+    static final long REMOTE_DEPLOYER_TIMEOUT = 15;
+    static final String FRAMEWORK_IP_PROPERTY = "org.coderthoughts.framework.ip";
+    static final String PAYLOAD_CACHE_SIZE_PROPERTY = "org.coderthoughts.cloud.provisioning.payload.cache.size";
+    static final long DEFAULT_PAYLOAD_CACHE_SIZE = 64 * 1024 * 1024;
+    static final String MAX_CONCURRENT_DEPLOYMENTS_PROPERTY = "org.coderthoughts.cloud.provisioning.deploy.max.concurrent";
+    static final long DEFAULT_MAX_CONCURRENT_DEPLOYMENTS = 8;
+    static final String MAX_DEPLOYMENTS_PER_TARGET_PROPERTY = "org.coderthoughts.cloud.provisioning.deploy.max.per.target";
+    static final long DEFAULT_MAX_DEPLOYMENTS_PER_TARGET = 2;
+    static final String MAX_CONCURRENT_TRANSFERS_PROPERTY = "org.coderthoughts.cloud.provisioning.transfer.max.concurrent";
+    static final long DEFAULT_MAX_CONCURRENT_TRANSFERS = 16;
+    static final String MAX_TRANSFERS_PER_TARGET_PROPERTY = "org.coderthoughts.cloud.provisioning.transfer.max.per.target";
+    static final long DEFAULT_MAX_TRANSFERS_PER_TARGET = 3;
+    static final String METRICS_TTL_PROPERTY = "org.coderthoughts.cloud.provisioning.metrics.ttl";
+    static final long DEFAULT_METRICS_TTL = 30000;
+    static final String PLACEMENT_CALL_TIMEOUT_PROPERTY = "org.coderthoughts.cloud.provisioning.placement.call.timeout";
+    static final long DEFAULT_PLACEMENT_CALL_TIMEOUT = 5000;
+    static final String PLACEMENT_TIMEOUT_PROPERTY = "org.coderthoughts.cloud.provisioning.placement.timeout";
+    static final long DEFAULT_PLACEMENT_TIMEOUT = 15000;
+    static final String PLACEMENT_THREADS_PROPERTY = "org.coderthoughts.cloud.provisioning.placement.threads";
+    static final long DEFAULT_PLACEMENT_THREADS = 16;
+    static final String TOPOLOGY_DEBOUNCE_PROPERTY = "org.coderthoughts.cloud.provisioning.topology.debounce";
+    static final long DEFAULT_TOPOLOGY_DEBOUNCE = 500;
+    static final int MAX_REBUILT_DIGESTS = 1024;
+
     private final BundleContext bundleContext;
-    private final ConcurrentMap<DeploymentType, List<ServiceReference>> deployments = new ConcurrentHashMap<DeploymentType, List<ServiceReference>>();
-    private final List<ServiceReference> frameworkReferences = new CopyOnWriteArrayList<ServiceReference>();
+    private final TopologyRegistry topology = new TopologyRegistry(FRAMEWORK_IP_PROPERTY);
+    private final Reconciler reconciler = new Reconciler(topology);
+    private final ConcurrentMap<Object, ChunkSizer> chunkSizers = new ConcurrentHashMap<Object, ChunkSizer>();
+    private final InventoryCache inventoryCache = new InventoryCache();
+    private final PayloadCache payloadCache;
+    // The digests bundles have once rebuilt from a delta on a target, by the digest of the bundle they were built from
+    private final Map<String, String> rebuiltDigests = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_REBUILT_DIGESTS;
+        }
+    };
+    private final FrameworkMetricsCache metricsCache;
+    private final PlacementEngine defaultPlacementEngine = PlacementEngines.byIndicator();
     private ServiceTracker frameworkTracker;
-    private ServiceTracker remoteDeployerServiceTracker;
+    private RemoteDeployerTracker remoteDeployerServiceTracker;
+    private DeploymentExecutor deploymentExecutor;
+    private DeploymentExecutor transferExecutor;
+    private TopologyEventLoop topologyEventLoop;
+    private SuitabilityEvaluator suitabilityEvaluator;
 
     protected DemoProvisionerBase(BundleContext bc) {
         bundleContext = bc;
+        payloadCache = new PayloadCache(getLongProperty(PAYLOAD_CACHE_SIZE_PROPERTY, DEFAULT_PAYLOAD_CACHE_SIZE), bc.getBundle());
+        metricsCache = new FrameworkMetricsCache(getLongProperty(METRICS_TTL_PROPERTY, DEFAULT_METRICS_TTL), 2);
     }
 
     /**
-     * Called when the topology of frameworks in the Ecosystem changes. An implementation can decide to change the active
-     * deployments.
+     * Called when the topology of frameworks in the Ecosystem changes, after the reconciliation of the deployments
+     * with the desired state has been started. Deployments still in progress are already part of the topology.
+     * An implementation can decide to change the active deployments further. Bursts of changes are reported with
+     * a single call, and calls never overlap.
      */
-    protected abstract void topologyChanged();
+    protected void topologyChanged() {
+    }
 
     /**
-     * Must provide all the bundles required for a particular deployment type.
+     * Provide all the bundles required for a particular deployment type. The default implementation returns
+     * the bundles of the desired state set for the type.
      * @param type The deployment type for which the bundles are requested. The deployment types are
      * defined by the provisioner implementation.
      * @param target The target to deploy to.
      * @return The bundles to be deployed.
      */
-    protected abstract String [] getDeploymentBundles(DeploymentType type, ServiceReference target);
+    protected String [] getDeploymentBundles(DeploymentType type, ServiceReference target) {
+        DeploymentSpec spec = reconciler.getDesiredState(type);
+        if (spec == null)
+            throw new IllegalStateException("No desired state for deployment type: " + type);
+        return spec.getBundles();
+    }
 
 
     /**
@@ -75,16 +139,29 @@ public abstract class DemoProvisionerBase  {
     protected abstract long getSuitabilityIndicator(DeploymentType type, OSGiFramework fw, ServiceReference ref) throws Exception;
 
     public void start() {
+        deploymentExecutor = new DeploymentExecutor("Deployment",
+                (int) getLongProperty(MAX_CONCURRENT_DEPLOYMENTS_PROPERTY, DEFAULT_MAX_CONCURRENT_DEPLOYMENTS),
+                (int) getLongProperty(MAX_DEPLOYMENTS_PER_TARGET_PROPERTY, DEFAULT_MAX_DEPLOYMENTS_PER_TARGET));
+        // Bundle transfers run on their own threads, so that a deployment waiting for its transfers never
+        // holds a thread they need
+        transferExecutor = new DeploymentExecutor("Transfer",
+                (int) getLongProperty(MAX_CONCURRENT_TRANSFERS_PROPERTY, DEFAULT_MAX_CONCURRENT_TRANSFERS),
+                (int) getLongProperty(MAX_TRANSFERS_PER_TARGET_PROPERTY, DEFAULT_MAX_TRANSFERS_PER_TARGET));
+        suitabilityEvaluator = new SuitabilityEvaluator(
+                (int) getLongProperty(PLACEMENT_THREADS_PROPERTY, DEFAULT_PLACEMENT_THREADS),
+                getLongProperty(PLACEMENT_CALL_TIMEOUT_PROPERTY, DEFAULT_PLACEMENT_CALL_TIMEOUT),
+                getLongProperty(PLACEMENT_TIMEOUT_PROPERTY, DEFAULT_PLACEMENT_TIMEOUT));
+        topologyEventLoop = new TopologyEventLoop(new TopologyEventLoop.Listener() {
+            @Override
+            public void topologyChanged(List<ServiceReference> added, List<ServiceReference> removed) {
+                handleTopologyChanged(added, removed);
+            }
+        }, getLongProperty(TOPOLOGY_DEBOUNCE_PROPERTY, DEFAULT_TOPOLOGY_DEBOUNCE));
+
         try {
-            // This makes sure that RemoteDeployer service in other frameworks are looked up. It shouldn't really be needed
+            // This makes sure that RemoteDeployer service in other frameworks are looked up, and keeps them at hand
             Filter filter = bundleContext.createFilter("(&(objectClass=" + RemoteDeployer.class.getName() + ")(service.imported=*))");
-            remoteDeployerServiceTracker = new ServiceTracker(bundleContext, filter, null) {
-                @Override
-                public Object addingService(ServiceReference reference) {
-                    System.out.println("*** RemoteDeployer service found for framework: " + reference.getProperty("endpoint.framework.uuid"));
-                    return super.addingService(reference);
-                }
-            };
+            remoteDeployerServiceTracker = new RemoteDeployerTracker(bundleContext, filter);
             remoteDeployerServiceTracker.open();
         } catch (InvalidSyntaxException e) {
             e.printStackTrace();
@@ -96,13 +173,13 @@ public abstract class DemoProvisionerBase  {
             frameworkTracker = new ServiceTracker(bundleContext, filter, null) {
                 @Override
                 public Object addingService(ServiceReference reference) {
-                    handleFrameworkAdded(reference);
+                    topologyEventLoop.frameworkAdded(reference);
                     return super.addingService(reference);
                 }
 
                 @Override
                 public void removedService(ServiceReference reference, Object service) {
-                    handleFrameworkRemoved(reference);
+                    topologyEventLoop.frameworkRemoved(reference);
                     super.removedService(reference, service);
                 }
             };
@@ -115,172 +192,619 @@ public abstract class DemoProvisionerBase  {
     public void stop() {
         frameworkTracker.close();
         remoteDeployerServiceTracker.close();
+        topologyEventLoop.shutdown();
+        metricsCache.shutdown();
+        suitabilityEvaluator.shutdown();
+        deploymentExecutor.shutdown();
+        transferExecutor.shutdown();
     }
 
     protected BundleContext getBundleContext() {
         return bundleContext;
     }
 
-    protected List<ServiceReference> getDeployments(DeploymentType type) {
-        List<ServiceReference> refs = deployments.get(type);
-        if (refs == null)
-            return Collections.emptyList();
-
-        List<ServiceReference> deployed = new ArrayList<ServiceReference>();
-        for (ServiceReference ref : new ArrayList<ServiceReference>(refs)) {
-            if (getFrameworkReferences().contains(ref)) {
-                deployed.add(ref);
-            } else {
-                // Framework has disappeared, remove from the list
-                refs.remove(ref);
-            }
+    protected long getLongProperty(String key, long defaultValue) {
+        String value = bundleContext.getProperty(key);
+        if (value == null)
+            return defaultValue;
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("*** Invalid value for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Obtain a framework variable through a cache, so that it normally doesn't cost a remote call.
+     * The value can be up to the TTL of the variable old, or a little older while it's being refreshed.
+     * @param fw The framework.
+     * @param ref The service reference representing the framework.
+     * @param name The name of the variable, see {@link OSGiFramework}.
+     * @return The value of the variable.
+     */
+    protected String getFrameworkVariable(OSGiFramework fw, ServiceReference ref, String name) {
+        return metricsCache.getFrameworkVariable(ref, fw, name);
+    }
+
+    /**
+     * Set the time to live for cached values of a framework variable. Variables without a TTL of their own use
+     * the value of the {@value #METRICS_TTL_PROPERTY} framework property.
+     */
+    protected void setFrameworkVariableTTL(String name, long millis) {
+        metricsCache.setTTL(name, millis);
+    }
+
+    /**
+     * Declare the desired state of a deployment type. Deployments are added and removed as needed to keep the
+     * topology in line with it, both now and when frameworks come and go.
+     * @param type The deployment type.
+     * @param spec The desired state, or {@code null} to remove all deployments of the type.
+     */
+    protected void setDesiredState(DeploymentType type, DeploymentSpec spec) {
+        reconciler.setDesiredState(type, spec);
+
+        // Before start() the first topology change takes care of it
+        if (topologyEventLoop != null) {
+            topologyEventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        reconcile();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
         }
-        return deployed;
+    }
+
+    protected DeploymentSpec getDesiredState(DeploymentType type) {
+        return reconciler.getDesiredState(type);
+    }
+
+    protected List<ServiceReference> getDeployments(DeploymentType type) {
+        return topology.getDeployments(type);
     }
 
     // Returns a copy that can be modified further by the caller.
     protected List<ServiceReference> getFrameworkReferences() {
-        return new ArrayList<ServiceReference>(frameworkReferences);
+        return topology.getFrameworks();
+    }
+
+    /**
+     * @return The frameworks with the given IP address.
+     */
+    protected List<ServiceReference> getFrameworkReferencesByIP(String ip) {
+        return topology.getFrameworks(FRAMEWORK_IP_PROPERTY, ip);
     }
 
     protected ServiceReference addDeployment(DeploymentType type) {
-        deployments.putIfAbsent(type, new CopyOnWriteArrayList<ServiceReference>());
+        List<ServiceReference> added = addDeployments(type, 1);
+        return added.isEmpty() ? null : added.get(0);
+    }
 
-        List<ServiceReference> possibleFrameworks = getFrameworkReferences();
-        possibleFrameworks.removeAll(deployments.get(type));
+    /**
+     * Add a number of deployments of the given type at once. The target frameworks are picked together and
+     * the deployments to them run in parallel.
+     * @param type The deployment type.
+     * @param count The number of deployments to add.
+     * @return The frameworks to which the deployment succeeded. This can be fewer than requested.
+     */
+    protected List<ServiceReference> addDeployments(DeploymentType type, int count) {
+        List<ServiceReference> added = new ArrayList<ServiceReference>();
+        for (Future<ServiceReference> future : startDeployments(type, count, null)) {
+            try {
+                added.add(future.get());
+            } catch (ExecutionException e) {
+                System.out.println("*** Deployment of " + type + " failed: " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return added;
+    }
+
+    // Picks the target frameworks and submits the deployments to them, without waiting for them to complete
+    private List<Future<ServiceReference>> startDeployments(final DeploymentType type, int count, PlanProgress progress) {
+        DeploymentSpec spec = reconciler.getDesiredState(type);
+        List<ServiceReference> possibleFrameworks = new ArrayList<ServiceReference>();
+        for (ServiceReference ref : getFrameworkReferences()) {
+            if (!topology.isDeployed(type, ref) && (spec == null || spec.accepts(ref)))
+                possibleFrameworks.add(ref);
+        }
 
-        ServiceReference target = getMostSuitableFramework(type, possibleFrameworks);
-        if (target == null) {
+        List<Future<ServiceReference>> futures = new ArrayList<Future<ServiceReference>>();
+        List<ServiceReference> targets = getMostSuitableFrameworks(type, possibleFrameworks, count);
+        if (targets.isEmpty()) {
             System.out.println("*** No suitable framework found for deployment of " + type);
+            return futures;
+        }
+
+        for (final ServiceReference target : targets) {
+            System.out.println("*** Adding " + type + " deployment to framework: " + target);
+
+            // Register the deployment up front so that the framework isn't picked again while deploying
+            if (!topology.addDeployment(type, target))
+                continue;
+            Callable<ServiceReference> task = new Callable<ServiceReference>() {
+                @Override
+                public ServiceReference call() throws Exception {
+                    try {
+                        deployToFramework(target, getDeploymentBundles(type, target));
+                        return target;
+                    } catch (RuntimeException e) {
+                        topology.removeDeployment(type, target);
+                        throw e;
+                    }
+                }
+            };
+            futures.add(deploymentExecutor.submit(target.getProperty("endpoint.framework.uuid"),
+                    progress != null ? progress.track(type, task) : task));
+        }
+        return futures;
+    }
+
+    /**
+     * Remove a deployment from a framework. The bundles of the deployment are uninstalled, except for those
+     * that are also part of another deployment on the same framework.
+     * @param type The deployment type.
+     * @param target The framework to remove the deployment from.
+     * @return Whether there was such a deployment.
+     */
+    protected boolean removeDeployment(DeploymentType type, ServiceReference target) {
+        Future<?> future = startRemoval(type, target, null);
+        if (future == null)
+            return false;
+
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            System.out.println("*** Removal of " + type + " failed: " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    private Future<?> startRemoval(final DeploymentType type, final ServiceReference target, PlanProgress progress) {
+        if (!topology.isDeployed(type, target))
             return null;
+
+        System.out.println("*** Removing " + type + " deployment from framework: " + target);
+        final Set<String> bundles = new LinkedHashSet<String>();
+        if (reconciler.getDesiredState(type) != null) {
+            bundles.addAll(Arrays.asList(getDeploymentBundles(type, target)));
+        } else {
+            // The desired state of the type was removed, its bundles are those it had at the time
+            String[] retired = reconciler.getRetiredBundles(type);
+            if (retired != null)
+                bundles.addAll(Arrays.asList(retired));
         }
+        topology.removeDeployment(type, target);
 
-        System.out.println("*** Adding " + type + " deployment to framework: " + target);
-        String[] bundles = getDeploymentBundles(type, target);
-        deployToFramework(target, bundles);
-        deployments.get(type).add(target);
-        return target;
+        Callable<Object> task = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                // What the other deployments on the target need is only looked at now, so that deployments
+                // registered after this removal was submitted keep their bundles too
+                for (DeploymentType other : topology.getDeploymentTypes(target)) {
+                    // Types that are being removed themselves have nothing to keep
+                    if (reconciler.getDesiredState(other) != null)
+                        bundles.removeAll(Arrays.asList(getDeploymentBundles(other, target)));
+                }
+                undeployFromFramework(target, bundles);
+                return null;
+            }
+        };
+        return deploymentExecutor.submit(target.getProperty("endpoint.framework.uuid"),
+                progress != null ? progress.track(type, task) : task);
     }
 
-    protected ServiceReference getMostSuitableFramework(DeploymentType type, Collection<ServiceReference> possibleFrameworks) {
-        SortedMap<Long, ServiceReference> frameworks = new TreeMap<Long, ServiceReference>();
-        for (ServiceReference ref : possibleFrameworks) {
+    // Runs on the topology event loop. Returns once the plan has been submitted, the event loop isn't held up
+    // while it's carried out.
+    private void reconcile() {
+        Reconciler.Plan plan = reconciler.plan();
+        PlanProgress progress = new PlanProgress(plan);
+        try {
+            if (!plan.isEmpty())
+                execute(plan, progress);
+        } finally {
+            // Also when part of the plan failed, otherwise the types in it aren't looked at again
+            progress.submitted();
+        }
+    }
+
+    private void execute(Reconciler.Plan plan, PlanProgress progress) {
+        System.out.println("*** Reconciling deployments: " + plan);
+
+        // Additions are registered in the topology before any removal runs, so that the removals don't
+        // uninstall bundles that the new deployments share with the removed ones
+        for (Map.Entry<DeploymentType, Integer> entry : plan.getAdditions().entrySet()) {
             try {
-                OSGiFramework fw = (OSGiFramework) getBundleContext().getService(ref);
-                long indicator = getSuitabilityIndicator(type, fw, ref);
+                startDeployments(entry.getKey(), entry.getValue(), progress);
+            } catch (RuntimeException e) {
+                System.out.println("*** Adding " + entry.getKey() + " failed: " + e);
+            }
+        }
+        for (Map.Entry<DeploymentType, List<ServiceReference>> entry : plan.getRemovals().entrySet()) {
+            for (ServiceReference target : entry.getValue()) {
+                try {
+                    startRemoval(entry.getKey(), target, progress);
+                } catch (RuntimeException e) {
+                    System.out.println("*** Removing " + entry.getKey() + " from " + target + " failed: " + e);
+                }
+            }
+        }
+    }
 
-                // A don't deploy if the indicator is negative
-                if (indicator < 0)
-                    continue;
+    // Tells the reconciler a plan has been carried out once the last of its tasks has finished
+    private class PlanProgress {
+        private final Reconciler.Plan plan;
+        // The tasks still running, plus one until everything in the plan has been submitted
+        private final AtomicInteger pending = new AtomicInteger(1);
 
-                boolean increase = true;
-                while(frameworks.get(indicator) != null) {
-                    if (indicator == Long.MAX_VALUE)
-                        increase = false;
+        PlanProgress(Reconciler.Plan plan) {
+            this.plan = plan;
+        }
 
-                    // in case there is another framework with the same indication value we find a
-                    // free spot on the map close to this value
-                    indicator += (increase ? 1 : -1);
+        <T> Callable<T> track(final DeploymentType type, final Callable<T> task) {
+            pending.incrementAndGet();
+            return new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    try {
+                        return task.call();
+                    } catch (Exception e) {
+                        // Nobody waits for the outcome
+                        System.out.println("*** Reconciling " + type + " failed: " + e);
+                        throw e;
+                    } finally {
+                        finished();
+                    }
                 }
+            };
+        }
 
-                frameworks.put(indicator, ref);
-            } catch (Exception e) {
-                // log error and continue
-                System.out.println("*** Exception while obtaining framework suitability: " + e);
-            }
+        void submitted() {
+            finished();
         }
 
-        if (frameworks.size() == 0)
-            return null;
+        private void finished() {
+            if (pending.decrementAndGet() == 0)
+                reconciler.completed(plan);
+        }
+    }
 
-        Long highVal = frameworks.lastKey();
-        ServiceReference mostSuitable = frameworks.get(highVal);
-        System.out.println("*** Found most suitable framework for deployment of " + type + ":" +
-                mostSuitable.getProperty("org.coderthoughts.framework.ip"));
-        return mostSuitable;
+    protected ServiceReference getMostSuitableFramework(DeploymentType type, Collection<ServiceReference> possibleFrameworks) {
+        List<ServiceReference> frameworks = getMostSuitableFrameworks(type, possibleFrameworks, 1);
+        return frameworks.isEmpty() ? null : frameworks.get(0);
     }
 
-    private void handleFrameworkAdded(final ServiceReference reference) {
-        // Do this asynchronously
-        new Thread(new Runnable() {
+    /**
+     * @return Up to {@code count} suitable frameworks, most suitable first.
+     */
+    protected List<ServiceReference> getMostSuitableFrameworks(final DeploymentType type, Collection<ServiceReference> possibleFrameworks, int count) {
+        // The candidates are scored concurrently, those that fail or don't answer in time are skipped
+        List<Candidate> evaluated = suitabilityEvaluator.evaluate(type.toString(), new ArrayList<ServiceReference>(possibleFrameworks),
+                new SuitabilityEvaluator.Scorer<Candidate>() {
             @Override
-            public void run() {
-                try {
-                    System.out.println("*** Remote Framework Added: " + reference.getProperty("org.coderthoughts.framework.ip"));
-                    frameworkReferences.add(reference);
-
-                    topologyChanged();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+            public Candidate score(ServiceReference ref) throws Exception {
+                OSGiFramework fw = (OSGiFramework) getBundleContext().getService(ref);
+                return getCandidate(type, fw, ref);
             }
-        }).start();
+        });
+
+        List<Candidate> candidates = new ArrayList<Candidate>(evaluated.size());
+        for (Candidate candidate : evaluated) {
+            if (candidate != null)
+                candidates.add(candidate);
+        }
+
+        List<ServiceReference> mostSuitable = new ArrayList<ServiceReference>();
+        for (Candidate candidate : getPlacementEngine(type).place(candidates, count)) {
+            ServiceReference ref = candidate.getReference();
+            System.out.println("*** Found suitable framework for deployment of " + type + ":" +
+                    ref.getProperty(FRAMEWORK_IP_PROPERTY));
+            mostSuitable.add(ref);
+        }
+        return mostSuitable;
     }
 
-    private void handleFrameworkRemoved(final ServiceReference reference) {
-        // Do this asynchronously
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    System.out.println("*** Remote Framework Removed: " + reference.getProperty("org.coderthoughts.framework.ip"));
-                    frameworkReferences.remove(reference);
+    /**
+     * Describe a framework as a candidate for a deployment. The default implementation uses the suitability
+     * indicator and the number of deployments already on the framework. Implementations can add further resources
+     * to be used by their {@link PlacementEngine}.
+     * @param type The deployment type concerned.
+     * @param fw The framework which is a candidate for the deployment. Note that is most likely a remote object.
+     * @param ref The service reference representing the framework passed in.
+     * @return The candidate.
+     */
+    protected Candidate getCandidate(DeploymentType type, OSGiFramework fw, ServiceReference ref) throws Exception {
+        Candidate candidate = new Candidate(ref, getSuitabilityIndicator(type, fw, ref));
+        candidate.set(Candidate.Resource.REPLICA_COUNT, topology.getDeploymentTypes(ref).size());
+        return candidate;
+    }
 
-                    topologyChanged();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+    /**
+     * Return the placement engine that picks the frameworks for a deployment type. The default engine picks the
+     * frameworks with the highest suitability indicator.
+     */
+    protected PlacementEngine getPlacementEngine(DeploymentType type) {
+        return defaultPlacementEngine;
+    }
+
+    private void handleTopologyChanged(List<ServiceReference> added, List<ServiceReference> removed) {
+        for (ServiceReference reference : removed) {
+            System.out.println("*** Remote Framework Removed: " + reference.getProperty(FRAMEWORK_IP_PROPERTY));
+            for (DeploymentType type : topology.getDeploymentTypes(reference)) {
+                reconciler.markDirty(type);
             }
-        }).start();
+            topology.removeFramework(reference);
+            metricsCache.remove(reference);
+            Object fwkUUID = reference.getProperty("endpoint.framework.uuid");
+            if (fwkUUID != null) {
+                chunkSizers.remove(fwkUUID);
+                inventoryCache.remove(fwkUUID);
+                remoteDeployerServiceTracker.forget(fwkUUID);
+            }
+        }
+        for (ServiceReference reference : added) {
+            System.out.println("*** Remote Framework Added: " + reference.getProperty(FRAMEWORK_IP_PROPERTY));
+            topology.addFramework(reference);
+        }
+        if (!added.isEmpty())
+            reconciler.frameworksAdded();
+
+        reconcile();
+        topologyChanged();
     }
 
     private void deployToFramework(ServiceReference frameworkReference, String[] bundles) {
-        RemoteDeployer rd = getRemoteDeployer(frameworkReference);
+        ServiceReference rdRef = getRemoteDeployerReference(frameworkReference);
+        RemoteDeployer rd = remoteDeployerServiceTracker.getRemoteDeployer(rdRef);
+        if (rd == null)
+            throw new IllegalStateException("RemoteDeployer has gone away for framework: " + frameworkReference);
         try {
-            deployBundles(rd, bundles);
+            BundleUploader uploader = new BundleUploader(rd, rdRef, getChunkSizer(frameworkReference));
+            Inventory inventory = getInventory(rd, frameworkReference);
+            String[] missing = getMissingBundles(inventory, uploader, bundles);
+            if (missing.length > 0)
+                deployBundles(rd, frameworkReference, uploader, inventory, missing);
             System.out.println("*** Bundles deployed to framework " + frameworkReference);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    private void deployBundles(RemoteDeployer rd, String ... bundleURLs) throws IOException, BundleException {
-        List<Long> ids = new ArrayList<Long>();
-        for (String u : bundleURLs) {
-            if (rd.getBundleID(u) != -1) {
-                System.out.println("*** Bundle with location: " + u + " is already deployed. Not redeploying.");
+    // Returns null if the framework can't provide its inventory
+    private Inventory getInventory(RemoteDeployer rd, ServiceReference frameworkReference) {
+        try {
+            return inventoryCache.refresh(frameworkReference.getProperty("endpoint.framework.uuid"), rd);
+        } catch (RuntimeException e) {
+            System.out.println("*** Unable to obtain bundle inventory from framework " + frameworkReference + ": " + e);
+            return null;
+        }
+    }
+
+    // Uses the inventory of the framework to leave out the bundles that are already there and active
+    private String[] getMissingBundles(Inventory inventory, BundleUploader uploader, String[] bundleURLs) throws IOException {
+        if (inventory == null)
+            return bundleURLs;
+
+        List<String> missing = new ArrayList<String>(bundleURLs.length);
+        for (String bundleURL : bundleURLs) {
+            Payload payload = getPayload(bundleURL, uploader);
+            String rebuilt = getRebuiltDigest(payload.getDigest());
+            if (inventory.isDeployed(payload.getDigest(), true) || (rebuilt != null && inventory.isDeployed(rebuilt, true)))
+                System.out.println("*** Bundle with location: " + bundleURL + " is already deployed. Not redeploying.");
+            else
+                missing.add(bundleURL);
+        }
+        return missing.toArray(new String[missing.size()]);
+    }
+
+    private void undeployFromFramework(ServiceReference frameworkReference, Collection<String> bundles) throws BundleException {
+        ServiceReference rdRef = getRemoteDeployerReference(frameworkReference);
+        RemoteDeployer rd = remoteDeployerServiceTracker.getRemoteDeployer(rdRef);
+        if (rd == null)
+            throw new IllegalStateException("RemoteDeployer has gone away for framework: " + frameworkReference);
+
+        // The bundle IDs are looked up in the inventory, which takes a single call to bring up to date
+        Inventory inventory = getInventory(rd, frameworkReference);
+
+        // Uninstalls are done one at a time in the reverse order of installation, a failure doesn't stop the others
+        List<String> locations = new ArrayList<String>(bundles);
+        Collections.reverse(locations);
+        BundleException failure = null;
+        for (String location : locations) {
+            long id = getBundleID(rd, inventory, location);
+            if (id == -1)
                 continue;
+
+            try {
+                rd.uninstallBundle(id);
+            } catch (BundleException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+        System.out.println("*** Bundles removed from framework " + frameworkReference);
+    }
+
+    // Without an inventory the target is asked directly
+    private static long getBundleID(RemoteDeployer rd, Inventory inventory, String location) {
+        if (inventory == null)
+            return rd.getBundleID(location);
+
+        BundleInfo info = inventory.getBundle(location);
+        return info != null ? info.getBundleID() : -1;
+    }
+
+    // After this the target knows the rebuilt content by its digest, the request is pointed at that so that
+    // it's satisfied without data
+    private boolean updateByDelta(RemoteDeployer rd, BundleUploader uploader, Inventory inventory, String bundleURL,
+            Payload payload, DeploymentRequest request) {
+        BundleInfo installed = inventory != null ? inventory.getBundle(bundleURL) : null;
+        if (installed == null || installed.getSha256() == null)
+            return false;
+
+        try {
+            EntryDigests entries = rd.getEntryDigests(installed.getBundleID());
+            BundleDelta delta = DeltaBuilder.create(getClass().getResource(bundleURL).openStream(), entries,
+                    installed.getSha256(), uploader.getTransferEncoding());
+            if (delta == null)
+                return false;
+
+            // A bundle rebuilt from an earlier delta has the content of the new version already
+            if (!delta.getSha256().equals(installed.getSha256())) {
+                rd.updateBundle(installed.getBundleID(), delta);
+                System.out.println("*** Updated bundle with location: " + bundleURL + " with " + delta);
             }
+            request.setSha256(delta.getSha256());
+            rememberRebuiltDigest(payload.getDigest(), delta.getSha256());
+            return true;
+        } catch (Exception e) {
+            // E.g. the bundle changed on the target in the mean time
+            System.out.println("*** Unable to update bundle with location: " + bundleURL + " with a delta, sending it whole: " + e);
+            return false;
+        }
+    }
 
-            URL url = getClass().getResource(u);
-            byte[] b64Data = Base64.encode(Streams.suck(url.openStream()));
-            ids.add(rd.installBundle(u, b64Data));
+    private void rememberRebuiltDigest(String sha256, String rebuiltSha256) {
+        synchronized (rebuiltDigests) {
+            rebuiltDigests.put(sha256, rebuiltSha256);
         }
+    }
 
-        for (long id : ids) {
-            rd.startBundle(id);
+    private String getRebuiltDigest(String sha256) {
+        synchronized (rebuiltDigests) {
+            return rebuiltDigests.get(sha256);
         }
     }
 
-    private RemoteDeployer getRemoteDeployer(ServiceReference frameworkReference) {
-        int retries = 15;
+    // Payloads are cached in the encodings the uploader sends them in
+    private Payload getPayload(String bundleURL, BundleUploader uploader) throws IOException {
+        return payloadCache.get(getClass().getResource(bundleURL), uploader.getTransferEncoding(), uploader.getCompressionLevel());
+    }
+
+    private void deployBundles(final RemoteDeployer rd, ServiceReference frameworkReference, final BundleUploader uploader,
+            final Inventory inventory, final String ... bundleURLs) throws IOException, BundleException {
+        final DeploymentRequest[] requests = new DeploymentRequest[bundleURLs.length];
+        final Payload[] payloads = new Payload[bundleURLs.length];
+        for (int i=0; i < bundleURLs.length; i++) {
+            payloads[i] = getPayload(bundleURLs[i], uploader);
+            requests[i] = new DeploymentRequest(bundleURLs[i], payloads[i].getDigest());
+        }
+        System.out.println("*** " + payloadCache);
+
+        // First ask the target to deploy by digest only, when it has all the content that's a single round trip
+        DeploymentResult[] results = rd.deploy(requests);
+
+        // Content is sent for several bundles at a time, the target installs them all once it has everything
+        Object target = frameworkReference.getProperty("endpoint.framework.uuid");
+        List<Future<?>> transfers = new ArrayList<Future<?>>();
+        // Content sent ahead of the second deploy, by chunks or by delta, comes back as present
+        boolean[] sent = new boolean[results.length];
+        for (int i=0; i < results.length; i++) {
+            if (results[i].getStatus() != DeploymentResult.CONTENT_REQUIRED)
+                continue;
+
+            sent[i] = true;
+            final int index = i;
+            transfers.add(transferExecutor.submit(target, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    sendContent(rd, uploader, inventory, bundleURLs[index], payloads[index], requests[index]);
+                    return null;
+                }
+            }));
+        }
+        if (!transfers.isEmpty()) {
+            waitFor(transfers);
+            results = rd.deploy(requests);
+        }
 
+        StringBuilder failures = new StringBuilder();
+        for (int i=0; i < results.length; i++) {
+            DeploymentResult result = results[i];
+            if (result.getStatus() == DeploymentResult.PRESENT && sent[i])
+                System.out.println("*** Deployed bundle with location: " + result.getLocation() + " as bundle " + result.getBundleID());
+            else if (result.getStatus() == DeploymentResult.PRESENT)
+                System.out.println("*** Bundle with location: " + result.getLocation() + " is already deployed. Not redeploying.");
+            else if (result.getStatus() != DeploymentResult.INSTALLED)
+                failures.append(' ').append(result);
+        }
+        if (failures.length() > 0)
+            throw new BundleException("Deployment failed:" + failures);
+    }
+
+    private void sendContent(RemoteDeployer rd, BundleUploader uploader, Inventory inventory, String bundleURL, Payload payload,
+            DeploymentRequest request) throws IOException, BundleException {
+        // An older version at the same location only needs the entries that changed
+        if (updateByDelta(rd, uploader, inventory, bundleURL, payload, request))
+            return;
+
+        // Small payloads go along with the next batch, large ones are uploaded in chunks beforehand
+        byte[] data = payload.getData();
+        if (data != null && uploader.fitsInOneChunk(data)) {
+            request.setData(data);
+            request.setTransferEncoding(uploader.getTransferEncoding());
+            request.setContentEncoding(payload.getContentEncoding());
+        } else if (data != null) {
+            uploader.upload(bundleURL, data, payload.getContentEncoding());
+        } else {
+            uploader.upload(bundleURL, getClass().getResource(bundleURL).openStream());
+        }
+    }
+
+    // Waits for all the futures, then reports the first failure
+    private static void waitFor(List<Future<?>> futures) throws BundleException {
+        Throwable failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BundleException("Interrupted while waiting for the target", e);
+            }
+        }
+
+        if (failure instanceof BundleException)
+            throw (BundleException) failure;
+        if (failure != null)
+            throw new BundleException("Operation on the target failed", failure);
+    }
+
+    private ChunkSizer getChunkSizer(ServiceReference frameworkReference) {
+        Object fwkUUID = frameworkReference.getProperty("endpoint.framework.uuid");
+        ChunkSizer chunkSizer = chunkSizers.get(fwkUUID);
+        if (chunkSizer == null) {
+            chunkSizers.putIfAbsent(fwkUUID, new ChunkSizer());
+            chunkSizer = chunkSizers.get(fwkUUID);
+        }
+        return chunkSizer;
+    }
+
+    private ServiceReference getRemoteDeployerReference(ServiceReference frameworkReference) {
         Object fwkUUID = frameworkReference.getProperty("endpoint.framework.uuid");
         if (fwkUUID == null)
             throw new IllegalStateException("Framework UUID not found for framework: " + frameworkReference);
 
         try {
-            int i=0;
-            while (i < retries) {
-                ServiceReference[] refs = getBundleContext().getServiceReferences(RemoteDeployer.class.getName(), "(endpoint.framework.uuid=" + fwkUUID + ")");
-                if (refs != null && refs.length > 0)
-                    return (RemoteDeployer) getBundleContext().getService(refs[0]);
-
-                TimeUnit.SECONDS.sleep(1);
-                i++;
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            // The RemoteDeployer may be imported a little after the framework itself, wait for it to arrive
+            ServiceReference ref = remoteDeployerServiceTracker.getReference(fwkUUID, REMOTE_DEPLOYER_TIMEOUT, TimeUnit.SECONDS);
+            if (ref != null)
+                return ref;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
         throw new IllegalStateException("Unable to find RemoteDeployer for framework: " + frameworkReference);
     }
@@ -313,5 +837,10 @@ public abstract class DemoProvisionerBase  {
         public int hashCode() {
             return type.hashCode();
         }
+
+        @Override
+        public String toString() {
+            return type;
+        }
     }
 }
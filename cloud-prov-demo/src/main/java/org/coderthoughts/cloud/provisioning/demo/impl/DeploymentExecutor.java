@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs deployment tasks concurrently, with a limit on the total number of tasks running and a separate
+ * limit on the number of tasks running against the same target framework. Tasks over the per-target limit
+ * are queued without holding on to a thread.
+ */
+class DeploymentExecutor {
+    private final ExecutorService executor;
+    private final int maxPerTarget;
+    private final Map<Object, TargetQueue> targets = new HashMap<Object, TargetQueue>();
+
+    /**
+     * @param name The name prefix of the threads.
+     */
+    DeploymentExecutor(final String name, int maxConcurrent, int maxPerTarget) {
+        this.maxPerTarget = maxPerTarget;
+        executor = Executors.newFixedThreadPool(maxConcurrent, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @param target The key of the target framework the task deploys to.
+     * @param task The task.
+     * @return A future for the outcome of the task.
+     */
+    <T> Future<T> submit(Object target, Callable<T> task) {
+        FutureTask<T> future = new FutureTask<T>(task);
+        synchronized (this) {
+            TargetQueue queue = targets.get(target);
+            if (queue == null) {
+                queue = new TargetQueue();
+                targets.put(target, queue);
+            }
+
+            if (queue.running < maxPerTarget) {
+                queue.running++;
+                dispatch(target, future);
+            } else {
+                queue.waiting.add(future);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Interrupt the running tasks and cancel those that haven't started, so that nobody waits for them.
+     */
+    void shutdown() {
+        List<Runnable> pending = new ArrayList<Runnable>();
+        synchronized (this) {
+            for (TargetQueue queue : targets.values()) {
+                pending.addAll(queue.waiting);
+            }
+            targets.clear();
+            for (Runnable r : executor.shutdownNow()) {
+                pending.add(r instanceof Dispatched ? ((Dispatched) r).task : r);
+            }
+        }
+
+        for (Runnable task : pending) {
+            if (task instanceof Future)
+                ((Future<?>) task).cancel(false);
+        }
+    }
+
+    private void dispatch(Object target, Runnable task) {
+        executor.execute(new Dispatched(target, task));
+    }
+
+    private synchronized void completed(Object target) {
+        // The queues are dropped on shutdown
+        TargetQueue queue = targets.get(target);
+        if (queue == null)
+            return;
+
+        Runnable next = queue.waiting.poll();
+        if (next != null) {
+            dispatch(target, next);
+        } else if (--queue.running == 0) {
+            targets.remove(target);
+        }
+    }
+
+    private class Dispatched implements Runnable {
+        private final Object target;
+        private final Runnable task;
+
+        Dispatched(Object target, Runnable task) {
+            this.target = target;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                completed(target);
+            }
+        }
+    }
+
+    private static class TargetQueue {
+        private final Queue<Runnable> waiting = new LinkedList<Runnable>();
+        private int running;
+    }
+}
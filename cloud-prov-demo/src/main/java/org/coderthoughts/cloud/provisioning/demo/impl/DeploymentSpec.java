@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.util.Arrays;
+
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * The desired state of a deployment type: how many replicas there should be, which bundles make up a
+ * deployment and, optionally, which frameworks are eligible to host one.
+ */
+public class DeploymentSpec {
+    private final int replicas;
+    private final Filter constraint;
+    private final String[] bundles;
+
+    /**
+     * @param replicas The number of frameworks the deployment should be on.
+     * @param constraint A filter on the framework service properties that eligible frameworks must match, or
+     * {@code null} if any framework is eligible.
+     * @param bundles The bundles to deploy, in install order.
+     */
+    public DeploymentSpec(int replicas, Filter constraint, String ... bundles) {
+        if (replicas < 0)
+            throw new IllegalArgumentException("Negative number of replicas: " + replicas);
+
+        this.replicas = replicas;
+        this.constraint = constraint;
+        this.bundles = bundles.clone();
+    }
+
+    public int getReplicas() {
+        return replicas;
+    }
+
+    public Filter getConstraint() {
+        return constraint;
+    }
+
+    public String[] getBundles() {
+        return bundles.clone();
+    }
+
+    /**
+     * @return Whether the framework is eligible to host this deployment.
+     */
+    public boolean accepts(ServiceReference framework) {
+        return constraint == null || constraint.match(framework);
+    }
+
+    @Override
+    public String toString() {
+        return "DeploymentSpec [replicas=" + replicas + (constraint != null ? ", constraint=" + constraint : "") +
+                ", bundles=" + Arrays.toString(bundles) + "]";
+    }
+}
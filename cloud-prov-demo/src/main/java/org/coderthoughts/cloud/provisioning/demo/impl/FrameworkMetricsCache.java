@@ -0,0 +1,181 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.coderthoughts.cloud.framework.service.api.OSGiFramework;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Caches framework variables obtained from remote {@link OSGiFramework} services. Each variable has a time to live.
+ * Values are refreshed in the background before they expire as long as they are being read, and a value that
+ * has expired is still returned while a refresh is in progress. Only the first read of a variable, or a read of
+ * a value that has been stale for a long time, waits for the remote call.
+ */
+class FrameworkMetricsCache {
+    // Values older than this many TTLs are not served stale, but reloaded synchronously
+    private static final int MAX_STALE_TTLS = 10;
+
+    // Values not read for this many TTLs are no longer refreshed in the background
+    private static final int IDLE_TTLS = 3;
+
+    private final long defaultTTL;
+    private final Map<String, Long> ttls = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+    private final ScheduledExecutorService scheduler;
+
+    FrameworkMetricsCache(long defaultTTL, int refreshThreads) {
+        this.defaultTTL = defaultTTL;
+        scheduler = Executors.newScheduledThreadPool(refreshThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Framework Metrics Refresh-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    void setTTL(String variable, long ttl) {
+        ttls.put(variable, ttl);
+    }
+
+    String getFrameworkVariable(ServiceReference ref, OSGiFramework fw, String variable) {
+        Key key = new Key(TopologyRegistry.getKey(ref), variable);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(fw, variable, getTTL(variable));
+            Entry existing = entries.putIfAbsent(key, entry);
+            if (existing != null)
+                entry = existing;
+        }
+
+        long now = System.currentTimeMillis();
+        entry.lastAccess = now;
+        long age = now - entry.loadedAt;
+        if (entry.value == null || age > entry.ttl * MAX_STALE_TTLS) {
+            entry.load();
+
+            // Keep the value fresh from now on, for as long as it's being read
+            scheduleRefresh(key, entry, entry.ttl);
+        } else if (age > entry.ttl) {
+            // Serve the stale value and refresh it in the background
+            scheduleRefresh(key, entry, 0);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Forget all the values cached for a framework.
+     */
+    void remove(ServiceReference ref) {
+        Object fwKey = TopologyRegistry.getKey(ref);
+        for (Iterator<Key> it = entries.keySet().iterator(); it.hasNext(); ) {
+            if (it.next().framework.equals(fwKey))
+                it.remove();
+        }
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private long getTTL(String variable) {
+        Long ttl = ttls.get(variable);
+        return ttl != null ? ttl : defaultTTL;
+    }
+
+    private void scheduleRefresh(final Key key, final Entry entry, long delay) {
+        if (!entry.refreshing.compareAndSet(false, true))
+            return;
+
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // Stop refreshing values that nobody reads anymore, or that belong to a framework that is gone
+                if (entries.get(key) != entry || System.currentTimeMillis() - entry.lastAccess > entry.ttl * IDLE_TTLS) {
+                    entry.refreshing.set(false);
+                    return;
+                }
+
+                try {
+                    entry.load();
+                } catch (Exception e) {
+                    System.out.println("*** Unable to refresh framework variable " + entry.variable + ": " + e);
+                } finally {
+                    entry.refreshing.set(false);
+                }
+                scheduleRefresh(key, entry, entry.ttl);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Entry {
+        private final OSGiFramework framework;
+        private final String variable;
+        private final long ttl;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile String value;
+        private volatile long loadedAt;
+        private volatile long lastAccess;
+
+        Entry(OSGiFramework fw, String variable, long ttl) {
+            framework = fw;
+            this.variable = variable;
+            this.ttl = ttl;
+        }
+
+        void load() {
+            value = framework.getFrameworkVariable(variable);
+            loadedAt = System.currentTimeMillis();
+        }
+    }
+
+    private static class Key {
+        private final Object framework;
+        private final String variable;
+
+        Key(Object framework, String variable) {
+            this.framework = framework;
+            this.variable = variable;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * framework.hashCode() + variable.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return framework.equals(other.framework) && variable.equals(other.variable);
+        }
+    }
+}
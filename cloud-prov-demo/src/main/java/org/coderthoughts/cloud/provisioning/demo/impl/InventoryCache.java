@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.coderthoughts.cloud.provisioning.api.BundleInfo;
+import org.coderthoughts.cloud.provisioning.api.BundleInventory;
+import org.coderthoughts.cloud.provisioning.api.RemoteDeployer;
+import org.osgi.framework.Bundle;
+
+/**
+ * Holds the bundle inventory of each remote framework. An inventory is obtained once and then kept up to date
+ * with the deltas from {@link RemoteDeployer#getInventorySince(long)}, so checking what's deployed on a framework
+ * costs one small remote call instead of one per bundle.
+ */
+class InventoryCache {
+    private final ConcurrentMap<Object, Inventory> inventories = new ConcurrentHashMap<Object, Inventory>();
+
+    /**
+     * Bring the inventory of a framework up to date.
+     * @param fwkUUID The UUID of the framework.
+     * @param rd The RemoteDeployer of the framework.
+     * @return The current inventory of the framework.
+     */
+    Inventory refresh(Object fwkUUID, RemoteDeployer rd) {
+        Inventory inventory = inventories.get(fwkUUID);
+        if (inventory == null) {
+            inventories.putIfAbsent(fwkUUID, new Inventory());
+            inventory = inventories.get(fwkUUID);
+        }
+        inventory.refresh(rd);
+        return inventory;
+    }
+
+    void remove(Object fwkUUID) {
+        inventories.remove(fwkUUID);
+    }
+
+    static class Inventory {
+        // All guarded by this
+        private long generation = -1;
+        private final Map<Long, BundleInfo> bundles = new HashMap<Long, BundleInfo>();
+        private final Map<String, BundleInfo> bundlesByDigest = new HashMap<String, BundleInfo>();
+        private final Map<String, BundleInfo> bundlesByLocation = new HashMap<String, BundleInfo>();
+
+        private synchronized void refresh(RemoteDeployer rd) {
+            BundleInventory delta = generation == -1 ? rd.getInventory() : rd.getInventorySince(generation);
+            if (delta.isComplete()) {
+                bundles.clear();
+                bundlesByDigest.clear();
+                bundlesByLocation.clear();
+            }
+
+            for (long id : delta.getRemovedBundleIDs()) {
+                remove(id);
+            }
+            for (BundleInfo info : delta.getBundles()) {
+                remove(info.getBundleID());
+                bundles.put(info.getBundleID(), info);
+                if (info.getSha256() != null)
+                    bundlesByDigest.put(info.getSha256(), info);
+                if (info.getLocation() != null)
+                    bundlesByLocation.put(info.getLocation(), info);
+            }
+            generation = delta.getGeneration();
+        }
+
+        private void remove(long id) {
+            BundleInfo info = bundles.remove(id);
+            if (info == null)
+                return;
+            if (info.getSha256() != null)
+                bundlesByDigest.remove(info.getSha256());
+            // Only if no other bundle has been installed at the location since
+            if (info.getLocation() != null && bundlesByLocation.get(info.getLocation()) == info)
+                bundlesByLocation.remove(info.getLocation());
+        }
+
+        /**
+         * @return The bundle installed at the given location, or {@code null} if there isn't one.
+         */
+        synchronized BundleInfo getBundle(String location) {
+            return bundlesByLocation.get(location);
+        }
+
+        /**
+         * @param sha256 The {@link org.coderthoughts.cloud.provisioning.api.ContentDigest} of the bundle content.
+         * @param started Whether the bundle should also be active.
+         * @return Whether the framework has a bundle with this content in the required state.
+         */
+        synchronized boolean isDeployed(String sha256, boolean started) {
+            BundleInfo info = bundlesByDigest.get(sha256);
+            if (info == null)
+                return false;
+            return !started || info.getState() == Bundle.ACTIVE;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import org.coderthoughts.cloud.provisioning.api.Base64;
+import org.coderthoughts.cloud.provisioning.api.ContentDigest;
+import org.coderthoughts.cloud.provisioning.api.ContentEncoding;
+import org.coderthoughts.cloud.provisioning.api.RemoteDeployer;
+import org.osgi.framework.Bundle;
+
+/**
+ * Caches bundle payloads in the form in which they are sent to a {@link RemoteDeployer}, so that
+ * deploying the same bundle to many frameworks reads and encodes it only once. Entries are keyed on the
+ * resource URL and the transfer encoding requested, together with the last modified time and size of files
+ * and the last modified time of the bundle for its own resources, so that a hit doesn't open the resource.
+ * The cache is bounded on the total number of bytes held, evicting the least recently used entries first.
+ * <p>
+ * Payloads are compressed when asked for, but only sent compressed if that makes them at least
+ * {@link #MIN_COMPRESSION_SAVING_PERCENT} smaller. Jars mostly hold deflated entries already. The compressed
+ * variants are derived from the cached uncompressed payload and kept apart from it, in a smaller cache keyed
+ * on the compression level as well, so that uploaders compressing at different levels don't crowd out the
+ * uncompressed payloads.
+ */
+class PayloadCache {
+    static final int MIN_COMPRESSION_SAVING_PERCENT = 5;
+
+    private final Bundle bundle;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final long maxCompressedBytes;
+    private final Map<Key, Payload> entries = new LinkedHashMap<Key, Payload>(16, 0.75f, true);
+    private final Map<CompressedKey, Payload> compressed = new LinkedHashMap<CompressedKey, Payload>(16, 0.75f, true);
+    private long bytes;
+    private long compressedBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loadedBytes = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+
+    /**
+     * @param maxBytes The maximum number of payload bytes held. Payloads larger than a quarter of this are
+     * not kept, only their digest is. Compressed variants are held in addition, up to a quarter of this.
+     * @param bundle The bundle the cached resources belong to.
+     */
+    PayloadCache(long maxBytes, Bundle bundle) {
+        this.bundle = bundle;
+        this.maxBytes = maxBytes;
+        maxEntryBytes = maxBytes / 4;
+        maxCompressedBytes = maxBytes / 4;
+    }
+
+    /**
+     * @param compressionLevel The deflate level to compress the payload with before the transfer encoding, or
+     * {@link Deflater#NO_COMPRESSION}.
+     */
+    Payload get(URL url, String transferEncoding, int compressionLevel) throws IOException {
+        // Files are looked up without opening them. The resources of a bundle only change when the bundle is
+        // updated, which changes its last modified time, so they don't need to be looked at at all.
+        File file = Streams.toFile(url);
+        Key key = file != null ?
+                new Key(url.toExternalForm(), file.lastModified(), file.length(), transferEncoding) :
+                new Key(url.toExternalForm(), bundle.getLastModified(), -1, transferEncoding);
+
+        Payload payload;
+        synchronized (this) {
+            payload = entries.get(key);
+        }
+        if (payload != null) {
+            hits.incrementAndGet();
+            return compress(key, payload, compressionLevel);
+        }
+        misses.incrementAndGet();
+
+        // Load outside of the lock, concurrent misses for the same key just do the work twice. Both ways of
+        // loading read the stream of the connection to the end and close it.
+        URLConnection conn = url.openConnection();
+        long size = file != null ? key.size : conn.getContentLength();
+        if (size > maxEntryBytes)
+            payload = new Payload(digest(conn), null, RemoteDeployer.CONTENT_ENCODING_IDENTITY);
+        else
+            payload = load(conn, transferEncoding);
+        put(key, payload);
+        return compress(key, payload, compressionLevel);
+    }
+
+    // Large files are digested straight from the page cache
+    private String digest(URLConnection conn) throws IOException {
+        ByteBuffer mapped = Streams.map(conn.getURL());
+        if (mapped == null)
+            return ContentDigest.digest(conn.getInputStream());
+
+        MessageDigest md = ContentDigest.newDigest();
+        md.update(mapped);
+        return ContentDigest.toHex(md.digest());
+    }
+
+    private Payload load(URLConnection conn, String transferEncoding) throws IOException {
+        LoadProgress progress = new LoadProgress();
+        byte[] content = Streams.suck(conn, progress);
+        loadedBytes.addAndGet(progress.transferred);
+        loadNanos.addAndGet(progress.elapsedNanos);
+        MessageDigest md = ContentDigest.newDigest();
+        md.update(content);
+        String digest = ContentDigest.toHex(md.digest());
+
+        byte[] data = RemoteDeployer.TRANSFER_ENCODING_BASE64.equals(transferEncoding) ? Base64.encode(content) : content;
+        if (data.length > maxEntryBytes)
+            data = null;
+        return new Payload(digest, data, RemoteDeployer.CONTENT_ENCODING_IDENTITY);
+    }
+
+    // Payloads too large to hold are streamed from the resource uncompressed
+    private Payload compress(Key key, Payload payload, int compressionLevel) throws IOException {
+        if (compressionLevel == Deflater.NO_COMPRESSION || payload.getData() == null)
+            return payload;
+
+        CompressedKey compressedKey = new CompressedKey(key, compressionLevel);
+        synchronized (this) {
+            Payload result = compressed.get(compressedKey);
+            if (result != null)
+                return result;
+        }
+
+        boolean base64 = RemoteDeployer.TRANSFER_ENCODING_BASE64.equals(key.transferEncoding);
+        byte[] content = base64 ? Base64.decode(payload.getData()) : payload.getData();
+        byte[] deflated = ContentEncoding.encode(RemoteDeployer.CONTENT_ENCODING_DEFLATE, content, compressionLevel);
+
+        // Also remembered when compressing didn't pay off, so that it isn't tried again
+        Payload result = payload;
+        if (deflated.length <= content.length - content.length * MIN_COMPRESSION_SAVING_PERCENT / 100)
+            result = new Payload(payload.getDigest(), base64 ? Base64.encode(deflated) : deflated,
+                    RemoteDeployer.CONTENT_ENCODING_DEFLATE);
+        synchronized (this) {
+            Payload old = compressed.put(compressedKey, result);
+            compressedBytes += result.size() - (old != null ? old.size() : 0);
+            compressedBytes -= evict(compressed, compressedBytes, maxCompressedBytes);
+        }
+        return result;
+    }
+
+    private synchronized void put(Key key, Payload payload) {
+        Payload old = entries.put(key, payload);
+        bytes += payload.size() - (old != null ? old.size() : 0);
+        bytes -= evict(entries, bytes, maxBytes);
+    }
+
+    // Evicts the least recently used entries until the bytes held are within the maximum, returns the bytes freed
+    private long evict(Map<?, Payload> map, long held, long max) {
+        long freed = 0;
+        for (Iterator<Payload> it = map.values().iterator(); held - freed > max && it.hasNext(); ) {
+            freed += it.next().size();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+        return freed;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PayloadCache [entries=" + entries.size() + ", bytes=" + bytes + ", compressed=" + compressed.size() +
+                ", compressedBytes=" + compressedBytes + ", hits=" + hits +
+                ", misses=" + misses + ", evictions=" + evictions + ", loaded=" + loadedBytes + " bytes at " +
+                (int) Streams.throughput(loadedBytes.get(), loadNanos.get()) + " bytes/ms]";
+    }
+
+    static class Payload {
+        private final String digest;
+        private final byte[] data;
+        private final String contentEncoding;
+
+        Payload(String digest, byte[] data, String contentEncoding) {
+            this.digest = digest;
+            this.data = data;
+            this.contentEncoding = contentEncoding;
+        }
+
+        String getDigest() {
+            return digest;
+        }
+
+        /**
+         * @return The ready-to-send payload in the transfer encoding it was requested for, or {@code null}
+         * if it was too large to cache and should be streamed from the resource instead.
+         */
+        byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return The content encoding applied to the data before the transfer encoding.
+         */
+        String getContentEncoding() {
+            return contentEncoding;
+        }
+
+        long size() {
+            // Rough overhead for the digest and the entry itself
+            return (data == null ? 0 : data.length) + 128;
+        }
+    }
+
+    // Keeps the last report, which covers the whole load
+    private static class LoadProgress implements Streams.Progress {
+        private long transferred;
+        private long elapsedNanos;
+
+        @Override
+        public void progress(long transferred, long total, long elapsedNanos) {
+            this.transferred = transferred;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+
+    private static class Key {
+        private final String url;
+        private final long lastModified;
+        private final long size;
+        private final String transferEncoding;
+
+        Key(String url, long lastModified, long size, String transferEncoding) {
+            this.url = url;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.transferEncoding = transferEncoding;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = url.hashCode();
+            result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+            result = 31 * result + (int) (size ^ (size >>> 32));
+            result = 31 * result + transferEncoding.hashCode();
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return url.equals(other.url) && lastModified == other.lastModified &&
+                    size == other.size && transferEncoding.equals(other.transferEncoding);
+        }
+    }
+
+    private static class CompressedKey {
+        private final Key key;
+        private final int compressionLevel;
+
+        CompressedKey(Key key, int compressionLevel) {
+            this.key = key;
+            this.compressionLevel = compressionLevel;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * key.hashCode() + compressionLevel;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof CompressedKey))
+                return false;
+            CompressedKey other = (CompressedKey) obj;
+            return key.equals(other.key) && compressionLevel == other.compressionLevel;
+        }
+    }
+}
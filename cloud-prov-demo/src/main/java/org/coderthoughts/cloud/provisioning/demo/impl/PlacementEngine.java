@@ -0,0 +1,29 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.util.List;
+
+/**
+ * Decides where the replicas of a deployment go.
+ */
+public interface PlacementEngine {
+    /**
+     * Place a number of replicas in one pass. Each candidate receives at most one replica.
+     * @param candidates The candidate frameworks.
+     * @param replicas The number of replicas to place.
+     * @return Up to {@code replicas} candidates, best first. Fewer if there are not enough suitable candidates.
+     */
+    List<Candidate> place(List<Candidate> candidates, int replicas);
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.coderthoughts.cloud.provisioning.demo.impl.Candidate.Resource;
+
+/**
+ * The available {@link PlacementEngine} strategies. All of them select the best candidates with a bounded heap,
+ * so placing k replicas over n candidates costs O(n log k). Ties go to the candidate that comes first.
+ */
+public class PlacementEngines {
+    private PlacementEngines() {}
+
+    /**
+     * Picks the candidates with the highest suitability indicator, preferring the ones with fewer replicas on ties.
+     */
+    public static PlacementEngine byIndicator() {
+        return new RankingPlacementEngine() {
+            @Override
+            protected int compare(Candidate a, Candidate b) {
+                if (a.getIndicator() != b.getIndicator())
+                    return a.getIndicator() < b.getIndicator() ? -1 : 1;
+                return compareLowerBetter(a, b, Resource.REPLICA_COUNT);
+            }
+        };
+    }
+
+    /**
+     * Spreads replicas over the frameworks with the most headroom. Every resource is normalized over the candidate
+     * set to a value between 0 (worst) and 1 (best) and the candidate score is the weighted sum of these. Candidates
+     * that don't report a resource count as average for it.
+     * @param weights The weight of each resource, resources without a weight are ignored.
+     */
+    public static PlacementEngine spread(Map<Resource, Double> weights) {
+        return new SpreadPlacementEngine(weights);
+    }
+
+    /**
+     * Packs replicas onto the frameworks where they fit most tightly, keeping the frameworks with most headroom free
+     * for larger deployments.
+     * @param resource The resource the deployment needs, e.g. {@link Resource#AVAILABLE_MEMORY}.
+     * @param demand The amount of that resource a replica needs.
+     */
+    public static PlacementEngine binPacking(final Resource resource, final long demand) {
+        return new RankingPlacementEngine() {
+            @Override
+            protected boolean isEligible(Candidate c) {
+                return super.isEligible(c) && c.has(resource) && c.get(resource) >= demand;
+            }
+
+            @Override
+            protected int compare(Candidate a, Candidate b) {
+                // Less left over after placing is better
+                long leftA = a.get(resource) - demand;
+                long leftB = b.get(resource) - demand;
+                if (leftA != leftB)
+                    return leftA > leftB ? -1 : 1;
+                return 0;
+            }
+        };
+    }
+
+    abstract static class RankingPlacementEngine implements PlacementEngine {
+        private final Comparator<Candidate> worstFirst = new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                int result = RankingPlacementEngine.this.compare(a, b);
+                if (result != 0)
+                    return result;
+
+                // Earlier candidates win ties
+                return a.index > b.index ? -1 : (a.index < b.index ? 1 : 0);
+            }
+        };
+
+        @Override
+        public List<Candidate> place(List<Candidate> candidates, int replicas) {
+            if (replicas <= 0)
+                return Collections.emptyList();
+
+            for (int i=0; i < candidates.size(); i++) {
+                candidates.get(i).index = i;
+            }
+            prepare(candidates);
+
+            PriorityQueue<Candidate> heap = new PriorityQueue<Candidate>(replicas + 1, worstFirst);
+            for (Candidate c : candidates) {
+                if (!isEligible(c))
+                    continue;
+
+                if (heap.size() < replicas) {
+                    heap.add(c);
+                } else if (worstFirst.compare(c, heap.peek()) > 0) {
+                    heap.poll();
+                    heap.add(c);
+                }
+            }
+
+            List<Candidate> placed = new ArrayList<Candidate>(heap);
+            Collections.sort(placed, Collections.reverseOrder(worstFirst));
+            return placed;
+        }
+
+        /**
+         * Called before ranking with all candidates, for engines that need to look at the candidate set as a whole.
+         */
+        protected void prepare(List<Candidate> candidates) {
+        }
+
+        protected boolean isEligible(Candidate c) {
+            return c.getIndicator() >= 0;
+        }
+
+        /**
+         * @return A positive value if {@code a} is a better place than {@code b}, negative if worse.
+         */
+        protected abstract int compare(Candidate a, Candidate b);
+
+        static int compareLowerBetter(Candidate a, Candidate b, Resource resource) {
+            long va = a.has(resource) ? a.get(resource) : 0;
+            long vb = b.has(resource) ? b.get(resource) : 0;
+            return va == vb ? 0 : (va > vb ? -1 : 1);
+        }
+    }
+
+    static class SpreadPlacementEngine extends RankingPlacementEngine {
+        private final Map<Resource, Double> weights;
+
+        SpreadPlacementEngine(Map<Resource, Double> weights) {
+            this.weights = new EnumMap<Resource, Double>(weights);
+        }
+
+        @Override
+        protected void prepare(List<Candidate> candidates) {
+            Map<Resource, long[]> ranges = new EnumMap<Resource, long[]>(Resource.class);
+            for (Resource resource : weights.keySet()) {
+                long[] range = {Long.MAX_VALUE, Long.MIN_VALUE};
+                for (Candidate c : candidates) {
+                    if (isEligible(c) && c.has(resource)) {
+                        range[0] = Math.min(range[0], c.get(resource));
+                        range[1] = Math.max(range[1], c.get(resource));
+                    }
+                }
+                ranges.put(resource, range);
+            }
+
+            for (Candidate c : candidates) {
+                double score = 0;
+                for (Map.Entry<Resource, Double> weight : weights.entrySet()) {
+                    Resource resource = weight.getKey();
+                    long[] range = ranges.get(resource);
+
+                    double normalized;
+                    if (!c.has(resource))
+                        normalized = 0.5;
+                    else if (range[1] <= range[0])
+                        normalized = 1;
+                    else
+                        normalized = (c.get(resource) - (double) range[0]) / ((double) range[1] - range[0]);
+
+                    if (!resource.isHigherBetter())
+                        normalized = 1 - normalized;
+                    score += weight.getValue() * normalized;
+                }
+                c.score = score;
+            }
+        }
+
+        @Override
+        protected int compare(Candidate a, Candidate b) {
+            return Double.compare(a.score, b.score);
+        }
+    }
+}
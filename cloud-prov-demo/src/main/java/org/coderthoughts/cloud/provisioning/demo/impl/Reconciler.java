@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.coderthoughts.cloud.provisioning.demo.impl.DemoProvisionerBase.DeploymentType;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Compares the desired state of each deployment type with the deployments in the {@link TopologyRegistry}
+ * and works out what needs to be added and removed to make them match.
+ * <p>
+ * Only deployment types that may be out of line are looked at: those whose desired state changed, those
+ * that had a deployment on a framework that went away, and, when frameworks are added, those that couldn't
+ * be fully deployed before. The cost of a reconciliation therefore depends on what changed, not on the
+ * number of frameworks or deployment types.
+ */
+class Reconciler {
+    private final TopologyRegistry topology;
+    private final ConcurrentMap<DeploymentType, DeploymentSpec> desired = new ConcurrentHashMap<DeploymentType, DeploymentSpec>();
+    // The bundles of types whose desired state was removed, kept until their last deployment is gone
+    private final ConcurrentMap<DeploymentType, String[]> retired = new ConcurrentHashMap<DeploymentType, String[]>();
+
+    // All guarded by this
+    private final Set<DeploymentType> dirty = new HashSet<DeploymentType>();
+    private final Set<DeploymentType> unsatisfied = new HashSet<DeploymentType>();
+
+    Reconciler(TopologyRegistry topology) {
+        this.topology = topology;
+    }
+
+    /**
+     * @param spec The desired state, or {@code null} to remove all deployments of the type.
+     */
+    void setDesiredState(DeploymentType type, DeploymentSpec spec) {
+        if (spec == null) {
+            DeploymentSpec old = desired.remove(type);
+            if (old != null)
+                retired.put(type, old.getBundles());
+        } else {
+            desired.put(type, spec);
+            retired.remove(type);
+        }
+        markDirty(type);
+    }
+
+    DeploymentSpec getDesiredState(DeploymentType type) {
+        return desired.get(type);
+    }
+
+    /**
+     * @return The bundles the type had before its desired state was removed, or {@code null} if it wasn't
+     * removed or no deployments of it are left.
+     */
+    String[] getRetiredBundles(DeploymentType type) {
+        return retired.get(type);
+    }
+
+    synchronized void markDirty(DeploymentType type) {
+        dirty.add(type);
+    }
+
+    /**
+     * Called when frameworks were added, which may allow types that are short of replicas to be deployed further.
+     */
+    synchronized void frameworksAdded() {
+        dirty.addAll(unsatisfied);
+    }
+
+    /**
+     * Work out the changes needed for all deployment types that may be out of line.
+     */
+    synchronized Plan plan() {
+        Plan plan = new Plan();
+        for (DeploymentType type : dirty) {
+            DeploymentSpec spec = desired.get(type);
+            int replicas = spec != null ? spec.getReplicas() : 0;
+
+            List<ServiceReference> kept = new ArrayList<ServiceReference>();
+            for (ServiceReference ref : topology.getDeployments(type)) {
+                // Deployments on frameworks that are no longer eligible are moved elsewhere
+                if (spec != null && spec.accepts(ref))
+                    kept.add(ref);
+                else
+                    plan.remove(type, ref);
+            }
+            while (kept.size() > replicas) {
+                plan.remove(type, kept.remove(kept.size() - 1));
+            }
+            if (kept.size() < replicas)
+                plan.add(type, replicas - kept.size());
+            plan.types.add(type);
+        }
+        dirty.clear();
+        return plan;
+    }
+
+    /**
+     * Called once a plan has been carried out, to remember the types that are still short of replicas.
+     */
+    synchronized void completed(Plan plan) {
+        for (DeploymentType type : plan.types) {
+            DeploymentSpec spec = desired.get(type);
+            if (spec != null && topology.getDeployments(type).size() < spec.getReplicas())
+                unsatisfied.add(type);
+            else
+                unsatisfied.remove(type);
+            if (spec == null && topology.getDeployments(type).isEmpty())
+                retired.remove(type);
+        }
+    }
+
+    static class Plan {
+        private final Map<DeploymentType, Integer> additions = new LinkedHashMap<DeploymentType, Integer>();
+        private final Map<DeploymentType, List<ServiceReference>> removals = new LinkedHashMap<DeploymentType, List<ServiceReference>>();
+        private final Set<DeploymentType> types = new HashSet<DeploymentType>();
+
+        private void add(DeploymentType type, int count) {
+            additions.put(type, count);
+        }
+
+        private void remove(DeploymentType type, ServiceReference ref) {
+            List<ServiceReference> refs = removals.get(type);
+            if (refs == null) {
+                refs = new ArrayList<ServiceReference>();
+                removals.put(type, refs);
+            }
+            refs.add(ref);
+        }
+
+        /**
+         * @return The number of deployments to add for each type.
+         */
+        Map<DeploymentType, Integer> getAdditions() {
+            return additions;
+        }
+
+        /**
+         * @return The frameworks to remove the deployment from for each type.
+         */
+        Map<DeploymentType, List<ServiceReference>> getRemovals() {
+            return removals;
+        }
+
+        boolean isEmpty() {
+            return additions.isEmpty() && removals.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Plan [");
+            for (Map.Entry<DeploymentType, Integer> entry : additions.entrySet()) {
+                sb.append(" +").append(entry.getValue()).append(' ').append(entry.getKey());
+            }
+            for (Map.Entry<DeploymentType, List<ServiceReference>> entry : removals.entrySet()) {
+                sb.append(" -").append(entry.getValue().size()).append(' ').append(entry.getKey());
+            }
+            return sb.append(" ]").toString();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.coderthoughts.cloud.provisioning.api.RemoteDeployer;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Tracks the imported {@link RemoteDeployer} services by the UUID of the framework they come from. Callers can
+ * wait for the deployer of a framework that has been discovered but whose deployer hasn't been imported yet;
+ * they are released as soon as it arrives. The service objects are the ones held by the tracker.
+ */
+class RemoteDeployerTracker extends ServiceTracker {
+    private final ConcurrentMap<Object, ServiceReference> references = new ConcurrentHashMap<Object, ServiceReference>();
+    private final ConcurrentMap<Object, CountDownLatch> arrivals = new ConcurrentHashMap<Object, CountDownLatch>();
+
+    RemoteDeployerTracker(BundleContext context, Filter filter) {
+        super(context, filter, null);
+    }
+
+    @Override
+    public Object addingService(ServiceReference reference) {
+        Object uuid = reference.getProperty("endpoint.framework.uuid");
+        System.out.println("*** RemoteDeployer service found for framework: " + uuid);
+
+        Object service = super.addingService(reference);
+        if (uuid != null && service != null) {
+            references.put(uuid, reference);
+            getArrival(uuid).countDown();
+        }
+        return service;
+    }
+
+    @Override
+    public void removedService(ServiceReference reference, Object service) {
+        Object uuid = reference.getProperty("endpoint.framework.uuid");
+        if (uuid != null && references.remove(uuid, reference)) {
+            // Anyone asking from now on waits for a new deployer to arrive
+            CountDownLatch arrival = arrivals.get(uuid);
+            if (arrival != null && arrival.getCount() == 0)
+                arrivals.remove(uuid, arrival);
+        }
+        super.removedService(reference, service);
+    }
+
+    /**
+     * @return The reference to the RemoteDeployer of the framework, waiting for it to be imported if it isn't
+     * there yet. {@code null} if it didn't arrive in time.
+     */
+    ServiceReference getReference(Object uuid, long timeout, TimeUnit unit) throws InterruptedException {
+        ServiceReference ref = references.get(uuid);
+        if (ref != null)
+            return ref;
+
+        getArrival(uuid).await(timeout, unit);
+        return references.get(uuid);
+    }
+
+    RemoteDeployer getRemoteDeployer(ServiceReference ref) {
+        return (RemoteDeployer) getService(ref);
+    }
+
+    /**
+     * Stop waiting for the deployer of a framework that has gone away.
+     */
+    void forget(Object uuid) {
+        CountDownLatch arrival = arrivals.remove(uuid);
+        if (arrival != null)
+            arrival.countDown();
+    }
+
+    private CountDownLatch getArrival(Object uuid) {
+        CountDownLatch arrival = arrivals.get(uuid);
+        if (arrival == null) {
+            // Not looked up again afterwards, forget() may have removed it by then
+            CountDownLatch created = new CountDownLatch(1);
+            arrival = arrivals.putIfAbsent(uuid, created);
+            if (arrival == null)
+                arrival = created;
+        }
+        return arrival;
+    }
+}
@@ -13,40 +13,190 @@
  */
 package org.coderthoughts.cloud.provisioning.demo.impl;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Copies and reads bundle content. Content from files is read through its {@link FileChannel} straight into
+ * an array of the file's size, and large files can be mapped to process them without reading them into the
+ * heap. Other content is read into arrays sized from the content length where it is known, so that it isn't
+ * copied again.
+ */
 public class Streams {
+    // Files smaller than this aren't mapped, mapping them costs more than it saves
+    static final int MIN_MAPPED_SIZE = 1024 * 1024;
+    static final int BUFFER_SIZE = 64 * 1024;
+
     private Streams() {}
 
+    /**
+     * Receives progress while content is read. Called after every block and once at the end.
+     */
+    public interface Progress {
+        /**
+         * @param transferred The number of bytes transferred so far.
+         * @param total The total number of bytes to transfer, or -1 if not known.
+         * @param elapsedNanos The time since the transfer started.
+         */
+        void progress(long transferred, long total, long elapsedNanos);
+    }
+
+    /**
+     * @return The throughput in bytes per millisecond.
+     */
+    public static double throughput(long bytes, long nanos) {
+        return bytes / Math.max(1.0, nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * Copy the stream to the end. Neither stream is closed.
+     */
     public static void pump(InputStream is, OutputStream os) throws IOException {
-        byte[] bytes = new byte[8192];
+        byte[] bytes = new byte[BUFFER_SIZE];
+        int length;
+        while ((length = is.read(bytes)) != -1) {
+            os.write(bytes, 0, length);
+        }
+    }
 
-        int length = 0;
+    /**
+     * Read from the stream until {@code length} bytes are read or the end of the stream is reached.
+     * @return The number of bytes read, less than {@code length} only at the end of the stream.
+     */
+    public static int fill(InputStream is, byte[] buffer, int length) throws IOException {
         int offset = 0;
+        while (offset < length) {
+            int read = is.read(buffer, offset, length - offset);
+            if (read == -1)
+                break;
+            offset += read;
+        }
+        return offset;
+    }
 
-        while ((length = is.read(bytes, offset, bytes.length - offset)) != -1) {
-            offset += length;
+    public static byte [] suck(InputStream is) throws IOException {
+        return suck(is, -1, null);
+    }
 
-            if (offset == bytes.length) {
-                os.write(bytes, 0, bytes.length);
-                offset = 0;
+    /**
+     * Read the stream to the end. The stream is closed afterwards.
+     * @param sizeHint The expected size of the content, or -1 if not known. The content is read straight into an
+     * array of this size and only copied if the hint turns out to be wrong.
+     * @param progress Receives progress, may be {@code null}.
+     */
+    public static byte [] suck(InputStream is, long sizeHint, Progress progress) throws IOException {
+        try {
+            if (is instanceof FileInputStream) {
+                FileChannel channel = ((FileInputStream) is).getChannel();
+                return read(channel, channel.size() - channel.position(), progress);
             }
-        }
-        if (offset != 0) {
-            os.write(bytes, 0, offset);
+            return read(is, sizeHint, progress);
+        } finally {
+            is.close();
         }
     }
 
-    public static byte [] suck(InputStream is) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    /**
+     * Read the content of a URL. Files are read through their channel, other URLs are pre-sized from the
+     * content length of the connection.
+     * @param progress Receives progress, may be {@code null}.
+     */
+    public static byte [] suck(URLConnection conn, Progress progress) throws IOException {
+        File file = toFile(conn.getURL());
+        if (file != null)
+            return suck(new FileInputStream(file), -1, progress);
+
+        // URLConnection.getContentLength() is all there is on Java 6, it's -1 for content over 2GB
+        return suck(conn.getInputStream(), conn.getContentLength(), progress);
+    }
+
+    /**
+     * Map the content of a URL into memory, so that it can be processed without reading it into the heap. The
+     * mapping is released when the buffer is garbage collected.
+     * @return The mapped content, or {@code null} if the URL isn't a file or is too small to be worth mapping.
+     */
+    public static ByteBuffer map(URL url) throws IOException {
+        File file = toFile(url);
+        if (file == null || file.length() < MIN_MAPPED_SIZE)
+            return null;
+
+        FileInputStream fis = new FileInputStream(file);
         try {
-            pump(is, baos);
-            return baos.toByteArray();
+            FileChannel channel = fis.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
         } finally {
-            is.close();
+            // The mapping stays valid after the channel is closed
+            fis.close();
+        }
+    }
+
+    /**
+     * @return The file the URL refers to, or {@code null} if it isn't a {@code file:} URL.
+     */
+    static File toFile(URL url) {
+        if (!"file".equals(url.getProtocol()))
+            return null;
+
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return new File(url.getPath());
+        } catch (IllegalArgumentException e) {
+            // E.g. a URL with an authority component
+            return null;
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long size, Progress progress) throws IOException {
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Content too large to read into memory: " + size);
+
+        long start = System.nanoTime();
+        byte[] bytes = new byte[(int) size];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining() && channel.read(buffer) != -1);
+        if (buffer.hasRemaining())
+            bytes = Arrays.copyOf(bytes, buffer.position());
+        if (progress != null)
+            progress.progress(bytes.length, size, System.nanoTime() - start);
+        return bytes;
+    }
+
+    private static byte[] read(InputStream is, long sizeHint, Progress progress) throws IOException {
+        long start = System.nanoTime();
+        byte[] bytes = new byte[sizeHint >= 0 && sizeHint <= Integer.MAX_VALUE ? (int) sizeHint : BUFFER_SIZE];
+        int count = 0;
+        while (true) {
+            if (count == bytes.length) {
+                // With a correct size hint the array is exactly full here, only grow it if there's more
+                int b = is.read();
+                if (b == -1)
+                    break;
+                if (bytes.length == Integer.MAX_VALUE)
+                    throw new IOException("Content too large to read into memory");
+                bytes = Arrays.copyOf(bytes, (int) Math.min(Integer.MAX_VALUE, Math.max(BUFFER_SIZE, bytes.length * 2L)));
+                bytes[count++] = (byte) b;
+            }
+
+            int read = is.read(bytes, count, bytes.length - count);
+            if (read == -1)
+                break;
+            count += read;
+            if (progress != null)
+                progress.progress(count, sizeHint, System.nanoTime() - start);
         }
+        if (progress != null)
+            progress.progress(count, count, System.nanoTime() - start);
+        return count == bytes.length ? bytes : Arrays.copyOf(bytes, count);
     }
 }
@@ -0,0 +1,193 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Scores candidate frameworks concurrently. Each call gets a deadline of its own and the evaluation as a whole
+ * has an overall deadline; candidates that don't answer in time are left out. A slow or hung framework therefore
+ * delays a placement by at most the call deadline, rather than indefinitely.
+ */
+class SuitabilityEvaluator {
+    interface Scorer<T> {
+        T score(ServiceReference candidate) throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final long callTimeout;
+    private final long overallTimeout;
+
+    SuitabilityEvaluator(int threads, long callTimeout, long overallTimeout) {
+        this.callTimeout = callTimeout;
+        this.overallTimeout = overallTimeout;
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Suitability Evaluation-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @param label Describes the placement in the timing report.
+     * @return The score for each candidate, in the same order, or {@code null} for candidates
+     * that failed or didn't answer in time.
+     */
+    <T> List<T> evaluate(String label, List<ServiceReference> candidates, Scorer<T> scorer) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(overallTimeout);
+        long callTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(callTimeout);
+
+        CompletionService<T> completionService = new ExecutorCompletionService<T>(executor);
+        List<Evaluation<T>> pending = new ArrayList<Evaluation<T>>();
+        List<Evaluation<T>> evaluations = new ArrayList<Evaluation<T>>(candidates.size());
+        for (ServiceReference candidate : candidates) {
+            Evaluation<T> evaluation = new Evaluation<T>(candidate, scorer);
+            evaluation.future = completionService.submit(evaluation);
+            evaluations.add(evaluation);
+            pending.add(evaluation);
+        }
+
+        try {
+            while (!pending.isEmpty()) {
+                long now = System.nanoTime();
+                if (now >= deadline) {
+                    for (Evaluation<T> evaluation : pending) {
+                        evaluation.abandon("placement deadline passed");
+                    }
+                    break;
+                }
+
+                // Abandon calls that have been running past their own deadline
+                long wakeUp = deadline;
+                for (Iterator<Evaluation<T>> it = pending.iterator(); it.hasNext(); ) {
+                    Evaluation<T> evaluation = it.next();
+                    if (!evaluation.hasStarted)
+                        continue;
+
+                    long started = evaluation.started;
+                    if (now - started >= callTimeoutNanos) {
+                        evaluation.abandon("timed out");
+                        it.remove();
+                    } else {
+                        wakeUp = Math.min(wakeUp, started + callTimeoutNanos);
+                    }
+                }
+
+                Future<T> done = completionService.poll(Math.max(wakeUp - now, 1), TimeUnit.NANOSECONDS);
+                if (done == null)
+                    continue;
+
+                for (Iterator<Evaluation<T>> it = pending.iterator(); it.hasNext(); ) {
+                    Evaluation<T> evaluation = it.next();
+                    if (evaluation.future == done) {
+                        evaluation.complete();
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Evaluation<T> evaluation : pending) {
+                evaluation.abandon("interrupted");
+            }
+        }
+
+        StringBuilder report = new StringBuilder("*** Suitability of " + evaluations.size() + " frameworks for " + label + " evaluated in " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms:");
+        List<T> scores = new ArrayList<T>(evaluations.size());
+        for (Evaluation<T> evaluation : evaluations) {
+            scores.add(evaluation.score);
+            report.append("\n***   ").append(evaluation);
+        }
+        System.out.println(report);
+        return scores;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static class Evaluation<T> implements Callable<T> {
+        private final ServiceReference candidate;
+        private final Scorer<T> scorer;
+        private Future<T> future;
+        // nanoTime() can be any value, including 0, so whether they were set is tracked separately. The
+        // times are written before the flags and read after them.
+        private long started;
+        private long finished;
+        private volatile boolean hasStarted;
+        private volatile boolean hasFinished;
+        private T score;
+        private String outcome = "not started";
+
+        Evaluation(ServiceReference candidate, Scorer<T> scorer) {
+            this.candidate = candidate;
+            this.scorer = scorer;
+        }
+
+        @Override
+        public T call() throws Exception {
+            started = System.nanoTime();
+            hasStarted = true;
+            try {
+                return scorer.score(candidate);
+            } finally {
+                finished = System.nanoTime();
+                hasFinished = true;
+            }
+        }
+
+        void complete() throws InterruptedException {
+            try {
+                score = future.get();
+                outcome = "scored " + score;
+            } catch (ExecutionException e) {
+                outcome = "failed: " + e.getCause();
+            }
+        }
+
+        void abandon(String reason) {
+            future.cancel(true);
+            outcome = reason;
+        }
+
+        @Override
+        public String toString() {
+            long end = hasFinished ? finished : System.nanoTime();
+            String time = hasStarted ? TimeUnit.NANOSECONDS.toMillis(end - started) + "ms" : "-";
+            return candidate.getProperty(DemoProvisionerBase.FRAMEWORK_IP_PROPERTY) + ": " + outcome + " (" + time + ")";
+        }
+    }
+}
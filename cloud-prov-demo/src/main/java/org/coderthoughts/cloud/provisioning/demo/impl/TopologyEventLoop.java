@@ -0,0 +1,205 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Delivers framework added and removed events to a listener on a single thread. Events that arrive in a burst
+ * are coalesced into one notification covering the net change, so that the topology is evaluated once per burst
+ * rather than once per event. Frameworks that keep coming and going are kept out of the topology until they
+ * have settled down.
+ */
+class TopologyEventLoop {
+    // A framework that changes this often within the flap window is considered to be flapping
+    static final int FLAP_THRESHOLD = 4;
+    static final long FLAP_WINDOW = TimeUnit.SECONDS.toMillis(60);
+
+    // A continuous stream of events doesn't postpone the evaluation by more than this many debounce periods
+    private static final int MAX_DEBOUNCE_PERIODS = 5;
+
+    interface Listener {
+        /**
+         * Called on the event loop thread with the net change since the previous call.
+         */
+        void topologyChanged(List<ServiceReference> added, List<ServiceReference> removed);
+    }
+
+    private final Listener listener;
+    private final long debounceMillis;
+    private final ScheduledExecutorService executor;
+
+    // All guarded by this
+    private final Map<ServiceReference, Boolean> pending = new LinkedHashMap<ServiceReference, Boolean>();
+    private final Map<Object, LinkedList<Long>> changeTimes = new HashMap<Object, LinkedList<Long>>();
+    private final Map<Object, ServiceReference> held = new HashMap<Object, ServiceReference>();
+    private ScheduledFuture<?> scheduledFlush;
+    private long firstPending;
+
+    TopologyEventLoop(Listener listener, long debounceMillis) {
+        this.listener = listener;
+        this.debounceMillis = debounceMillis;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Topology Event Loop");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    void frameworkAdded(ServiceReference ref) {
+        event(ref, true);
+    }
+
+    void frameworkRemoved(ServiceReference ref) {
+        event(ref, false);
+    }
+
+    /**
+     * Run a task on the event loop thread, so that it doesn't overlap with the listener.
+     */
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private synchronized void event(ServiceReference ref, boolean added) {
+        long now = System.currentTimeMillis();
+
+        if (pending.isEmpty())
+            firstPending = now;
+
+        // An add and a remove of the same framework within one burst cancel out
+        Boolean previous = pending.remove(ref);
+        if (previous == null || previous.booleanValue() == added)
+            pending.put(ref, added);
+
+        LinkedList<Long> times = changeTimes.get(TopologyRegistry.getKey(ref));
+        if (times == null) {
+            times = new LinkedList<Long>();
+            changeTimes.put(TopologyRegistry.getKey(ref), times);
+        }
+        times.add(now);
+
+        if (now - firstPending < debounceMillis * MAX_DEBOUNCE_PERIODS)
+            scheduleFlush(debounceMillis);
+    }
+
+    private void scheduleFlush(long delay) {
+        if (scheduledFlush != null)
+            scheduledFlush.cancel(false);
+
+        scheduledFlush = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        List<ServiceReference> added = new ArrayList<ServiceReference>();
+        List<ServiceReference> removed = new ArrayList<ServiceReference>();
+
+        synchronized (this) {
+            scheduledFlush = null;
+            long now = System.currentTimeMillis();
+            expireChangeTimes(now);
+
+            for (Map.Entry<ServiceReference, Boolean> entry : pending.entrySet()) {
+                ServiceReference ref = entry.getKey();
+                Object key = TopologyRegistry.getKey(ref);
+                if (entry.getValue()) {
+                    if (isFlapping(key)) {
+                        System.out.println("*** Framework is flapping, holding it back: " + ref.getProperty("org.coderthoughts.framework.ip"));
+                        held.put(key, ref);
+                    } else {
+                        added.add(ref);
+                    }
+                } else if (ref.equals(held.get(key))) {
+                    // Never made it into the topology
+                    held.remove(key);
+                } else {
+                    removed.add(ref);
+                }
+            }
+            pending.clear();
+
+            for (Iterator<Map.Entry<Object, ServiceReference>> it = held.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Object, ServiceReference> entry = it.next();
+                if (!isFlapping(entry.getKey())) {
+                    added.add(entry.getValue());
+                    it.remove();
+                }
+            }
+
+            // Check the held back frameworks again once their oldest change has left the flap window
+            if (!held.isEmpty())
+                scheduleFlush(nextExpiry(now));
+        }
+
+        if (added.isEmpty() && removed.isEmpty())
+            return;
+
+        try {
+            listener.topologyChanged(added, removed);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean isFlapping(Object key) {
+        List<Long> times = changeTimes.get(key);
+        return times != null && times.size() >= FLAP_THRESHOLD;
+    }
+
+    private void expireChangeTimes(long now) {
+        for (Iterator<LinkedList<Long>> it = changeTimes.values().iterator(); it.hasNext(); ) {
+            LinkedList<Long> times = it.next();
+            while (!times.isEmpty() && times.getFirst() < now - FLAP_WINDOW) {
+                times.removeFirst();
+            }
+            if (times.isEmpty())
+                it.remove();
+        }
+    }
+
+    private long nextExpiry(long now) {
+        long next = FLAP_WINDOW;
+        for (Object key : held.keySet()) {
+            LinkedList<Long> times = changeTimes.get(key);
+            if (times != null)
+                next = Math.min(next, times.getFirst() + FLAP_WINDOW - now);
+        }
+        return Math.max(next, debounceMillis);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.coderthoughts.cloud.provisioning.demo.impl.DemoProvisionerBase.DeploymentType;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Keeps track of the known frameworks and of the deployments on them. Frameworks are keyed on their
+ * {@code endpoint.framework.uuid}, with indexes from deployment type to frameworks, from framework to
+ * deployment types and from the values of selected service properties to frameworks.
+ * <p>
+ * Lookups don't lock. Updates are serialized so that the indexes stay consistent with each other.
+ */
+class TopologyRegistry {
+    private final ConcurrentMap<Object, ServiceReference> frameworks = new ConcurrentHashMap<Object, ServiceReference>();
+    private final ConcurrentMap<DeploymentType, Set<Object>> frameworksByType = new ConcurrentHashMap<DeploymentType, Set<Object>>();
+    private final ConcurrentMap<Object, Set<DeploymentType>> typesByFramework = new ConcurrentHashMap<Object, Set<DeploymentType>>();
+    private final ConcurrentMap<String, ConcurrentMap<Object, Set<Object>>> propertyIndexes = new ConcurrentHashMap<String, ConcurrentMap<Object, Set<Object>>>();
+
+    /**
+     * @param indexedProperties The framework service properties to maintain an index for.
+     */
+    TopologyRegistry(String ... indexedProperties) {
+        for (String property : indexedProperties) {
+            propertyIndexes.put(property, new ConcurrentHashMap<Object, Set<Object>>());
+        }
+    }
+
+    synchronized void addFramework(ServiceReference ref) {
+        Object key = getKey(ref);
+        ServiceReference old = frameworks.put(key, ref);
+        if (old != null)
+            unindexProperties(key, old);
+        indexProperties(key, ref);
+    }
+
+    /**
+     * Removes the framework along with all the deployments registered for it.
+     */
+    synchronized void removeFramework(ServiceReference ref) {
+        Object key = getKey(ref);
+        if (!frameworks.remove(key, ref))
+            return;
+
+        unindexProperties(key, ref);
+        Set<DeploymentType> types = typesByFramework.remove(key);
+        if (types != null) {
+            for (DeploymentType type : types) {
+                Set<Object> keys = frameworksByType.get(type);
+                if (keys != null)
+                    keys.remove(key);
+            }
+        }
+    }
+
+    boolean containsFramework(ServiceReference ref) {
+        return ref.equals(frameworks.get(getKey(ref)));
+    }
+
+    List<ServiceReference> getFrameworks() {
+        return new ArrayList<ServiceReference>(frameworks.values());
+    }
+
+    /**
+     * @return The frameworks that have the given value for an indexed property.
+     */
+    List<ServiceReference> getFrameworks(String property, Object value) {
+        ConcurrentMap<Object, Set<Object>> index = propertyIndexes.get(property);
+        if (index == null)
+            throw new IllegalArgumentException("Property is not indexed: " + property);
+
+        return resolve(index.get(value));
+    }
+
+    synchronized boolean addDeployment(DeploymentType type, ServiceReference ref) {
+        Object key = getKey(ref);
+        if (!containsFramework(ref))
+            return false;
+
+        getOrCreate(frameworksByType, type).add(key);
+        getOrCreate(typesByFramework, key).add(type);
+        return true;
+    }
+
+    synchronized void removeDeployment(DeploymentType type, ServiceReference ref) {
+        Object key = getKey(ref);
+        Set<Object> keys = frameworksByType.get(type);
+        if (keys != null)
+            keys.remove(key);
+        Set<DeploymentType> types = typesByFramework.get(key);
+        if (types != null)
+            types.remove(type);
+    }
+
+    boolean isDeployed(DeploymentType type, ServiceReference ref) {
+        Set<Object> keys = frameworksByType.get(type);
+        return keys != null && keys.contains(getKey(ref));
+    }
+
+    List<ServiceReference> getDeployments(DeploymentType type) {
+        return resolve(frameworksByType.get(type));
+    }
+
+    Set<DeploymentType> getDeploymentTypes(ServiceReference ref) {
+        Set<DeploymentType> types = typesByFramework.get(getKey(ref));
+        if (types == null)
+            return Collections.emptySet();
+        return Collections.unmodifiableSet(types);
+    }
+
+    private List<ServiceReference> resolve(Set<Object> keys) {
+        if (keys == null)
+            return Collections.emptyList();
+
+        List<ServiceReference> refs = new ArrayList<ServiceReference>(keys.size());
+        for (Object key : keys) {
+            ServiceReference ref = frameworks.get(key);
+            if (ref != null)
+                refs.add(ref);
+        }
+        return refs;
+    }
+
+    private void indexProperties(Object key, ServiceReference ref) {
+        for (String property : propertyIndexes.keySet()) {
+            Object value = ref.getProperty(property);
+            if (value != null)
+                getOrCreate(propertyIndexes.get(property), value).add(key);
+        }
+    }
+
+    private void unindexProperties(Object key, ServiceReference ref) {
+        for (String property : propertyIndexes.keySet()) {
+            Object value = ref.getProperty(property);
+            if (value == null)
+                continue;
+
+            ConcurrentMap<Object, Set<Object>> index = propertyIndexes.get(property);
+            Set<Object> keys = index.get(value);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty())
+                    index.remove(value);
+            }
+        }
+    }
+
+    private static <K, V> Set<V> getOrCreate(ConcurrentMap<K, Set<V>> map, K key) {
+        Set<V> set = map.get(key);
+        if (set == null) {
+            set = Collections.newSetFromMap(new ConcurrentHashMap<V, Boolean>());
+            map.put(key, set);
+        }
+        return set;
+    }
+
+    // Re-registrations of the same framework have different service references, but the same UUID
+    static Object getKey(ServiceReference ref) {
+        Object uuid = ref.getProperty("endpoint.framework.uuid");
+        return uuid != null ? uuid : ref;
+    }
+}
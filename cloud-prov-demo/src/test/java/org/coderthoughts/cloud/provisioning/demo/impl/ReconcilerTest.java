@@ -0,0 +1,111 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.coderthoughts.cloud.provisioning.demo.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.coderthoughts.cloud.provisioning.demo.impl.DemoProvisionerBase.DeploymentType;
+import org.junit.Test;
+import org.osgi.framework.ServiceReference;
+
+public class ReconcilerTest {
+    private static final DeploymentType WEB = new DeploymentType("web");
+    private static final DeploymentType DB = new DeploymentType("db");
+
+    private final TopologyRegistry topology = new TopologyRegistry();
+    private final Reconciler reconciler = new Reconciler(topology);
+
+    @Test
+    public void testRemoveDeployedType() {
+        ServiceReference fw = framework("fw1");
+        topology.addFramework(fw);
+
+        reconciler.setDesiredState(WEB, new DeploymentSpec(1, null, "file:web.jar", "file:common.jar"));
+        reconciler.setDesiredState(DB, new DeploymentSpec(1, null, "file:db.jar", "file:common.jar"));
+        Reconciler.Plan plan = reconciler.plan();
+        assertEquals(Integer.valueOf(1), plan.getAdditions().get(WEB));
+        assertEquals(Integer.valueOf(1), plan.getAdditions().get(DB));
+        assertTrue(topology.addDeployment(WEB, fw));
+        assertTrue(topology.addDeployment(DB, fw));
+        reconciler.completed(plan);
+
+        reconciler.setDesiredState(WEB, null);
+        assertNull(reconciler.getDesiredState(WEB));
+        // The bundles of the removed type remain known, so that they can be uninstalled
+        assertArrayEquals(new String[] {"file:web.jar", "file:common.jar"}, reconciler.getRetiredBundles(WEB));
+
+        plan = reconciler.plan();
+        assertTrue(plan.getAdditions().isEmpty());
+        assertEquals(Collections.singletonMap(WEB, Arrays.asList(fw)), plan.getRemovals());
+
+        topology.removeDeployment(WEB, fw);
+        reconciler.completed(plan);
+        assertNull(reconciler.getRetiredBundles(WEB));
+        assertTrue(reconciler.plan().isEmpty());
+        assertEquals(Arrays.asList(fw), topology.getDeployments(DB));
+    }
+
+    @Test
+    public void testRetiredBundlesKeptUntilLastDeploymentGone() {
+        ServiceReference fw1 = framework("fw1");
+        ServiceReference fw2 = framework("fw2");
+        topology.addFramework(fw1);
+        topology.addFramework(fw2);
+
+        reconciler.setDesiredState(WEB, new DeploymentSpec(2, null, "file:web.jar"));
+        reconciler.completed(reconciler.plan());
+        topology.addDeployment(WEB, fw1);
+        topology.addDeployment(WEB, fw2);
+
+        reconciler.setDesiredState(WEB, null);
+        Reconciler.Plan plan = reconciler.plan();
+        assertEquals(2, plan.getRemovals().get(WEB).size());
+
+        // Only one of the removals went through
+        topology.removeDeployment(WEB, fw1);
+        reconciler.completed(plan);
+        assertArrayEquals(new String[] {"file:web.jar"}, reconciler.getRetiredBundles(WEB));
+
+        // Setting the desired state again forgets about the removal
+        reconciler.setDesiredState(WEB, new DeploymentSpec(1, null, "file:web2.jar"));
+        assertNull(reconciler.getRetiredBundles(WEB));
+    }
+
+    private static ServiceReference framework(final String uuid) {
+        return (ServiceReference) Proxy.newProxyInstance(ReconcilerTest.class.getClassLoader(),
+                new Class<?>[] {ServiceReference.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("getProperty".equals(method.getName()))
+                    return "endpoint.framework.uuid".equals(args[0]) ? uuid : null;
+                if ("equals".equals(method.getName()))
+                    return proxy == args[0];
+                if ("hashCode".equals(method.getName()))
+                    return System.identityHashCode(proxy);
+                if ("toString".equals(method.getName()))
+                    return "Framework " + uuid;
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
@@ -1,12 +1,18 @@
 package org.coderthoughts.cloud.provisioning.jmx.impl;
 
+import org.coderthoughts.cloud.provisioning.api.xxx.DeploymentChannelFactory;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 
 public class Activator implements BundleActivator {
+    private DeploymentChannelFactoryImpl factory;
+    private ServiceRegistration reg;
 
     @Override
     public void start(BundleContext bundleContext) throws Exception {
+        factory = new DeploymentChannelFactoryImpl();
+        reg = bundleContext.registerService(DeploymentChannelFactory.class.getName(), factory, null);
         /*
         JMXServiceURL url = new JMXServiceURL("service:jmx:rmi:///jndi/rmi://:9999/jmxrmi");
         JMXConnector jmxc = JMXConnectorFactory.connect(url, null);
@@ -24,5 +30,7 @@ public class Activator implements BundleActivator {
 
     @Override
     public void stop(BundleContext context) throws Exception {
+        reg.unregister();
+        factory.close();
     }
 }
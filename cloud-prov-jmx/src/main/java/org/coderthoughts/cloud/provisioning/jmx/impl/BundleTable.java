@@ -0,0 +1,73 @@
+package org.coderthoughts.cloud.provisioning.jmx.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.osgi.jmx.framework.BundleStateMBean;
+
+/**
+ * The bundles of a remote framework as returned by {@link BundleStateMBean#listBundles()}, decoded once into
+ * arrays sorted on the bundle ID. Lookups are a binary search, no boxing and no further remote calls.
+ */
+class BundleTable {
+    private final long[] ids;
+    private final String[] symbolicNames;
+    private final String[] versions;
+    private final String[] states;
+
+    BundleTable(TabularData bundles) {
+        @SuppressWarnings("unchecked")
+        Collection<CompositeData> rows = (Collection<CompositeData>) bundles.values();
+        CompositeData[] sorted = rows.toArray(new CompositeData[rows.size()]);
+        long[] unsorted = new long[sorted.length];
+        for (int i=0; i < sorted.length; i++) {
+            unsorted[i] = (Long) sorted[i].get(BundleStateMBean.IDENTIFIER);
+        }
+
+        // Sort the IDs, then place each row at the position of its ID
+        ids = unsorted.clone();
+        Arrays.sort(ids);
+        symbolicNames = new String[ids.length];
+        versions = new String[ids.length];
+        states = new String[ids.length];
+        for (int i=0; i < sorted.length; i++) {
+            int index = Arrays.binarySearch(ids, unsorted[i]);
+            symbolicNames[index] = (String) sorted[i].get(BundleStateMBean.SYMBOLIC_NAME);
+            versions[index] = (String) sorted[i].get(BundleStateMBean.VERSION);
+            states[index] = (String) sorted[i].get(BundleStateMBean.STATE);
+        }
+    }
+
+    long[] getBundleIDs() {
+        return ids.clone();
+    }
+
+    /**
+     * @return The symbolic name of the bundle or {@code null} if there is no such bundle.
+     */
+    String getSymbolicName(long id) {
+        int index = Arrays.binarySearch(ids, id);
+        return index >= 0 ? symbolicNames[index] : null;
+    }
+
+    String getVersion(long id) {
+        int index = Arrays.binarySearch(ids, id);
+        return index >= 0 ? versions[index] : null;
+    }
+
+    /**
+     * @return The state of the bundle as reported by the {@link BundleStateMBean}, e.g. {@code ACTIVE}, or
+     * {@code null} if there is no such bundle.
+     */
+    String getState(long id) {
+        int index = Arrays.binarySearch(ids, id);
+        return index >= 0 ? states[index] : null;
+    }
+
+    int size() {
+        return ids.length;
+    }
+}
@@ -1,12 +1,259 @@
 package org.coderthoughts.cloud.provisioning.jmx.impl;
 
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import org.coderthoughts.cloud.provisioning.api.xxx.DeploymentChannel;
 import org.coderthoughts.cloud.provisioning.api.xxx.DeploymentChannelFactory;
 import org.osgi.framework.ServiceReference;
 
+/**
+ * Hands out {@link DeploymentChannel}s from a pool keyed on the framework UUID. Opening a channel takes
+ * seconds, so a channel is shared by all callers for the same framework and kept open for a while after
+ * the last of them closes it. Idle channels get a keepalive request every {@link #KEEPALIVE_INTERVAL} and
+ * are closed once they've been idle for {@link #IDLE_TIMEOUT}.
+ */
 class DeploymentChannelFactoryImpl implements DeploymentChannelFactory {
+    static final long KEEPALIVE_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+    private final long idleTimeout;
+    private final Map<Object, PooledChannel> channels = new HashMap<Object, PooledChannel>(); // Guarded by this
+    private final ScheduledExecutorService scheduler;
+
+    DeploymentChannelFactoryImpl() {
+        this(KEEPALIVE_INTERVAL, IDLE_TIMEOUT);
+    }
+
+    DeploymentChannelFactoryImpl(long keepAliveInterval, long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "DeploymentChannelKeepAlive");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                maintain();
+            }
+        }, keepAliveInterval, keepAliveInterval, TimeUnit.MILLISECONDS);
+    }
+
     @Override
-    public DeploymentChannel createDeploymentChannel(ServiceReference osgiFrameworkReference) {
-        return new DeploymentChannelImpl(osgiFrameworkReference);
+    public DeploymentChannel createDeploymentChannel(final ServiceReference osgiFrameworkReference) {
+        Object fwkUUID = osgiFrameworkReference.getProperty("endpoint.framework.uuid");
+        if (fwkUUID == null)
+            throw new IllegalStateException("Framework UUID not found for framework: " + osgiFrameworkReference);
+
+        PooledChannel pooled;
+        synchronized (this) {
+            pooled = channels.get(fwkUUID);
+            if (pooled == null || pooled.isBroken()) {
+                if (pooled != null)
+                    retire(fwkUUID, pooled);
+                pooled = new PooledChannel(new Callable<DeploymentChannelImpl>() {
+                    @Override
+                    public DeploymentChannelImpl call() throws Exception {
+                        return new DeploymentChannelImpl(osgiFrameworkReference, allocatePort());
+                    }
+                });
+                channels.put(fwkUUID, pooled);
+            }
+            pooled.refs++;
+        }
+
+        // Opened outside the lock, concurrent callers for the same framework wait for the same channel
+        try {
+            return new ChannelHandle(pooled, pooled.open());
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                pooled.refs--;
+                if (channels.get(fwkUUID) == pooled)
+                    channels.remove(fwkUUID);
+            }
+            throw e;
+        }
+    }
+
+    void close() {
+        scheduler.shutdownNow();
+        List<PooledChannel> all;
+        synchronized (this) {
+            all = new ArrayList<PooledChannel>(channels.values());
+            channels.clear();
+        }
+        for (PooledChannel pooled : all) {
+            pooled.close();
+        }
+    }
+
+    // Replaced channels are closed by the last caller still using them
+    private void retire(Object fwkUUID, PooledChannel pooled) {
+        channels.remove(fwkUUID);
+        pooled.retired = true;
+        if (pooled.refs == 0)
+            pooled.close();
+    }
+
+    private synchronized void release(PooledChannel pooled) {
+        if (--pooled.refs == 0) {
+            pooled.idleSince = System.currentTimeMillis();
+            if (pooled.retired)
+                pooled.close();
+        }
+    }
+
+    // Runs on the scheduler
+    private void maintain() {
+        long now = System.currentTimeMillis();
+        Map<Object, PooledChannel> idle = new HashMap<Object, PooledChannel>();
+        synchronized (this) {
+            for (Iterator<Map.Entry<Object, PooledChannel>> it = channels.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Object, PooledChannel> entry = it.next();
+                PooledChannel pooled = entry.getValue();
+                if (pooled.refs > 0 || pooled.channel == null)
+                    continue;
+
+                if (now - pooled.idleSince > idleTimeout || pooled.isBroken()) {
+                    it.remove();
+                    pooled.close();
+                } else {
+                    idle.put(entry.getKey(), pooled);
+                }
+            }
+        }
+
+        // Remote calls are made outside the lock
+        for (Map.Entry<Object, PooledChannel> entry : idle.entrySet()) {
+            PooledChannel pooled = entry.getValue();
+            try {
+                pooled.channel.keepAlive();
+            } catch (Exception e) {
+                System.out.println("*** Deployment channel to framework " + entry.getKey() + " failed keepalive: " + e);
+                pooled.broken = true;
+                synchronized (this) {
+                    if (channels.get(entry.getKey()) == pooled)
+                        retire(entry.getKey(), pooled);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return A local port that's currently free. Another process could take it before the tunnel binds
+     * it, in which case opening the channel fails and the next attempt gets another port.
+     */
+    static int allocatePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static class PooledChannel {
+        private final FutureTask<DeploymentChannelImpl> opener;
+        private volatile DeploymentChannelImpl channel;
+        private volatile boolean broken;
+        private boolean closed; // Guarded by this
+        // Guarded by the factory
+        private int refs;
+        private long idleSince = System.currentTimeMillis();
+        private boolean retired;
+
+        PooledChannel(Callable<DeploymentChannelImpl> opener) {
+            this.opener = new FutureTask<DeploymentChannelImpl>(opener);
+        }
+
+        // The first caller opens the channel, the others wait for it
+        DeploymentChannelImpl open() {
+            opener.run();
+            DeploymentChannelImpl c;
+            try {
+                c = opener.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new RuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+
+            synchronized (this) {
+                if (!closed) {
+                    channel = c;
+                    return c;
+                }
+            }
+            // Retired or closed while it was being opened, close() couldn't get to it then
+            c.close();
+            throw new IllegalStateException("Deployment channel was closed while it was being opened");
+        }
+
+        boolean isBroken() {
+            DeploymentChannelImpl c = channel;
+            return broken || (c != null && !c.isAlive());
+        }
+
+        synchronized void close() {
+            closed = true;
+            if (channel != null)
+                channel.close();
+        }
+    }
+
+    // What callers get, closing it hands the channel back to the pool
+    private class ChannelHandle implements DeploymentChannel {
+        private final PooledChannel pooled;
+        private final DeploymentChannelImpl channel;
+        private volatile boolean closed;
+
+        ChannelHandle(PooledChannel pooled, DeploymentChannelImpl channel) {
+            this.pooled = pooled;
+            this.channel = channel;
+        }
+
+        @Override
+        public long[] getBundleIDs() throws IOException {
+            checkOpen();
+            return channel.getBundleIDs();
+        }
+
+        @Override
+        public String getBundleSymbolicName(long id) throws IOException {
+            checkOpen();
+            return channel.getBundleSymbolicName(id);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed)
+                return;
+            closed = true;
+            release(pooled);
+        }
+
+        private void checkOpen() {
+            if (closed)
+                throw new IllegalStateException("Deployment channel has been closed");
+        }
     }
 }
@@ -5,10 +5,14 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.JMX;
 import javax.management.MBeanServerConnection;
+import javax.management.Notification;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
+import javax.management.remote.JMXConnectionNotification;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
@@ -41,13 +45,26 @@ class DeploymentChannelImpl implements DeploymentChannel {
 //    ,
 //        "127.0.0.1:21810:127.8.228.1:21810",
 //        "20c7346e55af4403ae6cbeb415ae1203@discoserver-davidosgi.rhcloud.com"};
+    // Tables are only cached this long if the remote framework doesn't send bundle state notifications
+    private static final long UNNOTIFIED_TABLE_TTL = 5000;
 
     private final JMXConnector jmxConnectorFactory;
     private final Process sshTunnelProcess;
     private final BundleStateMBean mbeanProxy;
     private final String remoteExternalIP;
 
-    DeploymentChannelImpl(ServiceReference osgiFrameworkReference) {
+    // The bundle table is dropped on every bundle state notification and rebuilt on the next query. The
+    // generation makes sure a table that was being fetched while a notification came in isn't kept.
+    private final AtomicLong tableGeneration = new AtomicLong();
+    private volatile BundleTable bundleTable;
+    private volatile boolean notified;
+    private volatile long tableExpiry;
+
+    /**
+     * Open the SSH tunnel and the JMX connection through it.
+     * @param localPort The local port to forward through the tunnel, see {@link DeploymentChannelFactoryImpl}.
+     */
+    DeploymentChannelImpl(ServiceReference osgiFrameworkReference, int localPort) {
         String internalIP = System.getenv("OPENSHIFT_INTERNAL_IP");
         if (internalIP == null)
             throw new RuntimeException("Environment variable OPENSHIFT_INTERNAL_IP is not set. It should be set to the internal IP address of the current instance");
@@ -65,7 +82,6 @@ class DeploymentChannelImpl implements DeploymentChannel {
             throw new RuntimeException("Remote Framework does not have the service property 'org.coderthoughts.framework.ip' set");
 
         List<String> cmdList = new ArrayList<String>(Arrays.asList(SSH_COMMAND_PREFIX));
-        String localPort = "23456";
         cmdList.add(internalIP + ":" + localPort + ":" + remoteInternalIP + ":29999");
         cmdList.add(remoteGearUUID + "@" + remoteExternalIP);
 
@@ -81,18 +97,95 @@ class DeploymentChannelImpl implements DeploymentChannel {
         sshTunnelProcess = process;
 
         System.out.println("*** Created SSH Tunnel, now creating JMX connection");
+        MBeanServerConnection mbsc;
+        ObjectName mbeanName;
         try {
             JMXServiceURL url = new JMXServiceURL("service:jmx:rmi:///jndi/rmi://:" + localPort + "/jmxrmi");
             jmxConnectorFactory = JMXConnectorFactory.connect(url, null);
-            MBeanServerConnection mbsc = jmxConnectorFactory.getMBeanServerConnection();
+            mbsc = jmxConnectorFactory.getMBeanServerConnection();
 
-            ObjectName mbeanName = new ObjectName("osgi.core:type=bundleState,version=1.5");
+            mbeanName = new ObjectName("osgi.core:type=bundleState,version=1.5");
             mbeanProxy = JMX.newMBeanProxy(mbsc, mbeanName, BundleStateMBean.class);
         } catch (Exception e) {
+            process.destroy();
             throw new RuntimeException(e);
         }
 
-        waitUntilChannelActive(10000);
+        try {
+            waitUntilChannelActive(10000);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        listenForBundleChanges(mbsc, mbeanName);
+    }
+
+    private void listenForBundleChanges(MBeanServerConnection mbsc, ObjectName mbeanName) {
+        NotificationListener invalidator = new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification, Object handback) {
+                if (notification instanceof JMXConnectionNotification &&
+                        !JMXConnectionNotification.NOTIFS_LOST.equals(notification.getType()) &&
+                        !JMXConnectionNotification.FAILED.equals(notification.getType()))
+                    return;
+                invalidateBundleTable();
+            }
+        };
+
+        // Notifications missed while the connection was down mean the table can't be trusted either
+        jmxConnectorFactory.addConnectionNotificationListener(invalidator, null, null);
+        try {
+            mbsc.addNotificationListener(mbeanName, invalidator, null, null);
+            notified = true;
+        } catch (Exception e) {
+            System.out.println("*** No bundle state notifications from " + remoteExternalIP + ", bundle table is cached for " +
+                    UNNOTIFIED_TABLE_TTL + "ms: " + e);
+        }
+    }
+
+    private synchronized void invalidateBundleTable() {
+        tableGeneration.incrementAndGet();
+        bundleTable = null;
+    }
+
+    /**
+     * @return The bundles of the remote framework, fetched with a single remote call if the cached table is
+     * out of date.
+     */
+    BundleTable getBundleTable() throws IOException {
+        BundleTable table = bundleTable;
+        if (table != null && (notified || System.currentTimeMillis() < tableExpiry))
+            return table;
+
+        long generation = tableGeneration.get();
+        table = new BundleTable(mbeanProxy.listBundles());
+        synchronized (this) {
+            if (tableGeneration.get() == generation) {
+                bundleTable = table;
+                tableExpiry = System.currentTimeMillis() + UNNOTIFIED_TABLE_TTL;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return Whether the SSH tunnel process is still running.
+     */
+    boolean isAlive() {
+        try {
+            sshTunnelProcess.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Send a cheap request over the channel, so that the tunnel isn't dropped for being idle.
+     * @throws IOException If the channel doesn't work any more.
+     */
+    void keepAlive() throws IOException {
+        mbeanProxy.getSymbolicName(0);
     }
 
     private void waitUntilChannelActive(int timeout) {
@@ -117,14 +210,13 @@ class DeploymentChannelImpl implements DeploymentChannel {
     }
 
     @Override
-    public long[] getBundleIDs() {
-        // TODO Auto-generated method stub
-        return null;
+    public long[] getBundleIDs() throws IOException {
+        return getBundleTable().getBundleIDs();
     }
 
     @Override
     public String getBundleSymbolicName(long id) throws IOException {
-        return mbeanProxy.getSymbolicName(0);
+        return getBundleTable().getSymbolicName(id);
     }
 
     @Override
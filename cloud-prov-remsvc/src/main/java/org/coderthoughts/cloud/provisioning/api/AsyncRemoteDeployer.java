@@ -0,0 +1,25 @@
+package org.coderthoughts.cloud.provisioning.api;
+
+import java.util.concurrent.Future;
+
+/**
+ * Asynchronous companion to {@link RemoteDeployer}. Every method returns straight away with a {@link Future}
+ * for the outcome of the corresponding {@link RemoteDeployer} call, so that a caller can keep several
+ * operations in flight. See {@link AsyncRemoteDeployerAdapter} to obtain one for any {@link RemoteDeployer}.
+ * <p>
+ * Each method also takes an optional {@link Callback}, called when the operation completes.
+ */
+public interface AsyncRemoteDeployer {
+    public interface Callback<T> {
+        void completed(T result);
+        void failed(Throwable failure);
+    }
+
+    Future<DeploymentResult[]> deploy(DeploymentRequest[] requests, Callback<DeploymentResult[]> callback);
+    Future<Long> installBundle(String location, byte[] base64Data, Callback<Long> callback);
+    Future<Long> installBundleRaw(String location, byte[] data, Callback<Long> callback);
+    Future<Long> updateBundle(long id, BundleDelta delta, Callback<Long> callback);
+    Future<Void> startBundle(long id, Callback<Void> callback);
+    Future<Void> stopBundle(long id, Callback<Void> callback);
+    Future<Void> uninstallBundle(long id, Callback<Void> callback);
+}
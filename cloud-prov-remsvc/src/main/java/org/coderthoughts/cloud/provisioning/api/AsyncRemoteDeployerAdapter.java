@@ -0,0 +1,119 @@
+package org.coderthoughts.cloud.provisioning.api;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs the calls of an {@link AsyncRemoteDeployer} against a {@link RemoteDeployer} on an {@link Executor}.
+ * The executor decides how many operations are in flight at the same time.
+ */
+public class AsyncRemoteDeployerAdapter implements AsyncRemoteDeployer {
+    private final RemoteDeployer remoteDeployer;
+    private final Executor executor;
+
+    public AsyncRemoteDeployerAdapter(RemoteDeployer rd, Executor executor) {
+        remoteDeployer = rd;
+        this.executor = executor;
+    }
+
+    @Override
+    public Future<DeploymentResult[]> deploy(final DeploymentRequest[] requests, Callback<DeploymentResult[]> callback) {
+        return submit(new Callable<DeploymentResult[]>() {
+            @Override
+            public DeploymentResult[] call() throws Exception {
+                return remoteDeployer.deploy(requests);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Long> installBundle(final String location, final byte[] base64Data, Callback<Long> callback) {
+        return submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return remoteDeployer.installBundle(location, base64Data);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Long> installBundleRaw(final String location, final byte[] data, Callback<Long> callback) {
+        return submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return remoteDeployer.installBundleRaw(location, data);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Long> updateBundle(final long id, final BundleDelta delta, Callback<Long> callback) {
+        return submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return remoteDeployer.updateBundle(id, delta);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Void> startBundle(final long id, Callback<Void> callback) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                remoteDeployer.startBundle(id);
+                return null;
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Void> stopBundle(final long id, Callback<Void> callback) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                remoteDeployer.stopBundle(id);
+                return null;
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Void> uninstallBundle(final long id, Callback<Void> callback) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                remoteDeployer.uninstallBundle(id);
+                return null;
+            }
+        }, callback);
+    }
+
+    private <T> Future<T> submit(Callable<T> task, final Callback<T> callback) {
+        FutureTask<T> future = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                if (callback == null || isCancelled())
+                    return;
+
+                T result;
+                try {
+                    result = get();
+                } catch (ExecutionException e) {
+                    callback.failed(e.getCause());
+                    return;
+                } catch (InterruptedException e) {
+                    // Can't happen, the task is done
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                callback.completed(result);
+            }
+        };
+        executor.execute(future);
+        return future;
+    }
+}
@@ -23,6 +23,7 @@ package org.coderthoughts.cloud.provisioning.api;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 public class Base64
 {
@@ -54,18 +55,25 @@ public class Base64
         int       offset,
         int       length)
     {
-        ByteArrayOutputStream    bOut = new ByteArrayOutputStream();
-
-        try
-        {
-            encoder.encode(data, 0, data.length, bOut);
-        }
-        catch (IOException e)
-        {
-            throw new RuntimeException("exception encoding base64 string: " + e);
-        }
+        byte[] out = new byte[encoder.estimateEncodedLength(length)];
+        encoder.encode(data, offset, length, out, 0);
+        return out;
+    }
 
-        return bOut.toByteArray();
+    /**
+     * encode the input data into the given array, which must have room for the
+     * encoded form of the data from the output offset.
+     *
+     * @return the number of bytes produced.
+     */
+    public static int encode(
+        byte[]    data,
+        int       offset,
+        int       length,
+        byte[]    out,
+        int       outOffset)
+    {
+        return encoder.encode(data, offset, length, out, outOffset);
     }
 
     /**
@@ -123,18 +131,58 @@ public class Base64
         int       offset,
         int       length)
     {
-        ByteArrayOutputStream    bOut = new ByteArrayOutputStream();
+        byte[] out = new byte[encoder.estimateDecodedLength(data, offset, length)];
+        int outLen;
 
         try
         {
-            encoder.decode(data, offset, length, bOut);
+            outLen = encoder.decode(data, offset, length, out, 0);
         }
         catch (IOException e)
         {
             throw new RuntimeException("exception decoding base64 string: " + e);
         }
 
-        return bOut.toByteArray();
+        // only data with whitespace in it decodes to less than estimated
+        return outLen == out.length ? out : Arrays.copyOf(out, outLen);
+    }
+
+    /**
+     * decode the base 64 encoded input data into the given array, which must have room
+     * for {@link #decodedLength(byte[], int, int)} bytes from the output offset.
+     *
+     * @return the number of bytes produced.
+     */
+    public static int decode(
+        byte[]    data,
+        int       offset,
+        int       length,
+        byte[]    out,
+        int       outOffset)
+        throws IOException
+    {
+        return encoder.decode(data, offset, length, out, outOffset);
+    }
+
+    /**
+     * @return the size of the encoded form of the given number of bytes.
+     */
+    public static int encodedLength(
+        int       length)
+    {
+        return encoder.estimateEncodedLength(length);
+    }
+
+    /**
+     * @return the size of the decoded form of the data, exact if there is no whitespace
+     * other than at the end and an upper bound otherwise.
+     */
+    public static int decodedLength(
+        byte[]    data,
+        int       offset,
+        int       length)
+    {
+        return encoder.estimateDecodedLength(data, offset, length);
     }
 
     /**
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.Arrays;
 
 public class Base64Encoder
 {
@@ -49,11 +50,25 @@ public class Base64Encoder
      */
     protected final byte[] decodingTable = new byte[256];
 
+    /*
+     * the decoding table as ints, with -1 for anything that isn't a base 64 digit, so that
+     * a whole group of 4 digits can be validated with a single comparison.
+     */
+    protected final int[] fastDecodingTable = new int[256];
+
+    /*
+     * the amount of data encoded at a time when writing to a stream, a multiple of 3 so
+     * that only the last block is padded.
+     */
+    private static final int STREAM_BLOCK_SIZE = 3 * 1024;
+
     protected void initialiseDecodingTable()
     {
+        Arrays.fill(fastDecodingTable, -1);
         for (int i = 0; i < encodingTable.length; i++)
         {
             decodingTable[encodingTable[i]] = (byte)i;
+            fastDecodingTable[encodingTable[i]] = i;
         }
     }
 
@@ -74,168 +89,201 @@ public class Base64Encoder
         OutputStream    out)
         throws IOException
     {
+        byte[] block = new byte[estimateEncodedLength(Math.min(length, STREAM_BLOCK_SIZE))];
+        int outLen = 0;
+
+        for (int i = off, end = off + length; i < end; i += STREAM_BLOCK_SIZE)
+        {
+            int n = encode(data, i, Math.min(STREAM_BLOCK_SIZE, end - i), block, 0);
+            out.write(block, 0, n);
+            outLen += n;
+        }
+
+        return outLen;
+    }
+
+    /**
+     * encode the input data into the given array, which must have room for
+     * {@link #estimateEncodedLength(int)} bytes from the output offset.
+     *
+     * @return the number of bytes produced.
+     */
+    public int encode(byte[] data, int off, int length, byte[] out, int outOff)
+    {
+        byte[] table = encodingTable;
         int modulus = length % 3;
-        int dataLength = (length - modulus);
-        int a1, a2, a3;
+        int end = off + length - modulus;
+        int o = outOff;
 
-        for (int i = off; i < off + dataLength; i += 3)
+        // 3 bytes in, 4 digits out per iteration
+        for (int i = off; i < end; i += 3)
         {
-            a1 = data[i] & 0xff;
-            a2 = data[i + 1] & 0xff;
-            a3 = data[i + 2] & 0xff;
+            int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
 
-            out.write(encodingTable[(a1 >>> 2) & 0x3f]);
-            out.write(encodingTable[((a1 << 4) | (a2 >>> 4)) & 0x3f]);
-            out.write(encodingTable[((a2 << 2) | (a3 >>> 6)) & 0x3f]);
-            out.write(encodingTable[a3 & 0x3f]);
+            out[o] = table[bits >>> 18];
+            out[o + 1] = table[(bits >>> 12) & 0x3f];
+            out[o + 2] = table[(bits >>> 6) & 0x3f];
+            out[o + 3] = table[bits & 0x3f];
+            o += 4;
         }
 
         /*
          * process the tail end.
          */
-        int    b1, b2, b3;
-        int    d1, d2;
-
-        switch (modulus)
+        if (modulus == 1)
         {
-        case 0:        /* nothing left to do */
-            break;
-        case 1:
-            d1 = data[off + dataLength] & 0xff;
-            b1 = (d1 >>> 2) & 0x3f;
-            b2 = (d1 << 4) & 0x3f;
-
-            out.write(encodingTable[b1]);
-            out.write(encodingTable[b2]);
-            out.write(padding);
-            out.write(padding);
-            break;
-        case 2:
-            d1 = data[off + dataLength] & 0xff;
-            d2 = data[off + dataLength + 1] & 0xff;
-
-            b1 = (d1 >>> 2) & 0x3f;
-            b2 = ((d1 << 4) | (d2 >>> 4)) & 0x3f;
-            b3 = (d2 << 2) & 0x3f;
+            int bits = (data[end] & 0xff) << 16;
 
-            out.write(encodingTable[b1]);
-            out.write(encodingTable[b2]);
-            out.write(encodingTable[b3]);
-            out.write(padding);
-            break;
+            out[o++] = table[bits >>> 18];
+            out[o++] = table[(bits >>> 12) & 0x3f];
+            out[o++] = padding;
+            out[o++] = padding;
         }
+        else if (modulus == 2)
+        {
+            int bits = (data[end] & 0xff) << 16 | (data[end + 1] & 0xff) << 8;
 
-        return (dataLength / 3) * 4 + ((modulus == 0) ? 0 : 4);
-    }
+            out[o++] = table[bits >>> 18];
+            out[o++] = table[(bits >>> 12) & 0x3f];
+            out[o++] = table[(bits >>> 6) & 0x3f];
+            out[o++] = padding;
+        }
 
-    private boolean ignore(
-        char    c)
-    {
-        return (c == '\n' || c =='\r' || c == '\t' || c == ' ');
+        return o - outOff;
     }
 
     /**
-     * decode the base 64 encoded byte data writing it to the given output stream,
-     * whitespace characters will be ignored.
+     * decode the base 64 encoded byte data into the given array, whitespace characters
+     * will be ignored. The array must have room for {@link #estimateDecodedLength(byte[], int, int)}
+     * bytes from the output offset.
      *
      * @return the number of bytes produced.
+     * @exception IOException if the data is not valid base 64.
      */
-    public int decode(
-        byte[]                data,
-        int                    off,
-        int                    length,
-        OutputStream    out)
-        throws IOException
+    public int decode(byte[] data, int off, int length, byte[] out, int outOff) throws IOException
     {
-        byte[]    bytes;
-        byte    b1, b2, b3, b4;
-        int        outLen = 0;
-
-        int        end = off + length;
+        int[] table = fastDecodingTable;
+        int i = off;
+        int end = off + length;
+        int o = outOff;
 
-        while (end > 0)
+        while (i < end)
         {
-            if (!ignore((char)data[end - 1]))
+            // 4 digits in, 3 bytes out per iteration. Any padding, whitespace or invalid
+            // character makes the combined value negative and drops out to the loop below.
+            while (i + 4 <= end)
             {
-                break;
-            }
-
-            end--;
-        }
-
-        int  i = off;
-        int  finish = end - 4;
+                int bits = table[data[i] & 0xff] << 18 | table[data[i + 1] & 0xff] << 12 |
+                        table[data[i + 2] & 0xff] << 6 | table[data[i + 3] & 0xff];
+                if (bits < 0)
+                {
+                    break;
+                }
 
-        while (i < finish)
-        {
-            while ((i < finish) && ignore((char)data[i]))
-            {
-                i++;
+                out[o] = (byte)(bits >> 16);
+                out[o + 1] = (byte)(bits >> 8);
+                out[o + 2] = (byte)bits;
+                i += 4;
+                o += 3;
             }
 
-            b1 = decodingTable[data[i++]];
-
-            while ((i < finish) && ignore((char)data[i]))
+            // Take the next group a character at a time
+            int bits = 0;
+            int count = 0;
+            for (; i < end && count < 4; i++)
             {
-                i++;
-            }
-
-            b2 = decodingTable[data[i++]];
+                int c = data[i] & 0xff;
+                if (ignore((char)c))
+                {
+                    continue;
+                }
+                if (c == padding)
+                {
+                    // the end of the data
+                    i = end;
+                    break;
+                }
 
-            while ((i < finish) && ignore((char)data[i]))
-            {
-                i++;
+                int digit = table[c];
+                if (digit < 0)
+                {
+                    throw new IOException("invalid base64 character: " + c);
+                }
+                bits = bits << 6 | digit;
+                count++;
             }
 
-            b3 = decodingTable[data[i++]];
-
-            while ((i < finish) && ignore((char)data[i]))
+            switch (count)
             {
-                i++;
+            case 0:
+                break;
+            case 1:
+                throw new IOException("truncated base64 data");
+            case 2:
+                out[o++] = (byte)(bits >> 4);
+                break;
+            case 3:
+                out[o++] = (byte)(bits >> 10);
+                out[o++] = (byte)(bits >> 2);
+                break;
+            case 4:
+                out[o++] = (byte)(bits >> 16);
+                out[o++] = (byte)(bits >> 8);
+                out[o++] = (byte)bits;
+                break;
             }
+        }
 
-            b4 = decodingTable[data[i++]];
-
-            out.write((b1 << 2) | (b2 >> 4));
-            out.write((b2 << 4) | (b3 >> 2));
-            out.write((b3 << 6) | b4);
+        return o - outOff;
+    }
 
-            outLen += 3;
+    /**
+     * Calculate the size of the decoded form of base 64 data. This is exact for data without
+     * whitespace other than at the end, and an upper bound otherwise.
+     *
+     * @return The size of the data in decoded form.
+     */
+    public int estimateDecodedLength(byte[] data, int off, int length)
+    {
+        int end = off + length;
+        while (end > off && ignore((char)data[end - 1]))
+        {
+            end--;
         }
 
-        if (data[end - 2] == padding)
+        int padded = 0;
+        while (padded < 2 && end > off && data[end - 1] == padding)
         {
-            b1 = decodingTable[data[end - 4]];
-            b2 = decodingTable[data[end - 3]];
-
-            out.write((b1 << 2) | (b2 >> 4));
-
-            outLen += 1;
+            end--;
+            padded++;
         }
-        else if (data[end - 1] == padding)
-        {
-            b1 = decodingTable[data[end - 4]];
-            b2 = decodingTable[data[end - 3]];
-            b3 = decodingTable[data[end - 2]];
 
-            out.write((b1 << 2) | (b2 >> 4));
-            out.write((b2 << 4) | (b3 >> 2));
-
-            outLen += 2;
-        }
-        else
-        {
-            b1 = decodingTable[data[end - 4]];
-            b2 = decodingTable[data[end - 3]];
-            b3 = decodingTable[data[end - 2]];
-            b4 = decodingTable[data[end - 1]];
+        int digits = end - off;
+        return digits / 4 * 3 + (digits % 4 == 0 ? 0 : digits % 4 - 1);
+    }
 
-            out.write((b1 << 2) | (b2 >> 4));
-            out.write((b2 << 4) | (b3 >> 2));
-            out.write((b3 << 6) | b4);
+    private boolean ignore(
+        char    c)
+    {
+        return (c == '\n' || c =='\r' || c == '\t' || c == ' ');
+    }
 
-            outLen += 3;
-        }
+    /**
+     * decode the base 64 encoded byte data writing it to the given output stream,
+     * whitespace characters will be ignored.
+     *
+     * @return the number of bytes produced.
+     */
+    public int decode(
+        byte[]                data,
+        int                    off,
+        int                    length,
+        OutputStream    out)
+        throws IOException
+    {
+        byte[] decoded = new byte[estimateDecodedLength(data, off, length)];
+        int outLen = decode(data, off, length, decoded, 0);
+        out.write(decoded, 0, outLen);
 
         return outLen;
     }
@@ -251,94 +299,19 @@ public class Base64Encoder
         OutputStream    out)
         throws IOException
     {
-        byte[]    bytes;
-        byte    b1, b2, b3, b4;
-        int        length = 0;
-
-        int        end = data.length();
-
-        while (end > 0)
+        // Same rules as for byte data, anything outside ASCII isn't a base 64 character
+        byte[] bytes = new byte[data.length()];
+        for (int i = 0; i < bytes.length; i++)
         {
-            if (!ignore(data.charAt(end - 1)))
+            char c = data.charAt(i);
+            if (c > 0x7f)
             {
-                break;
+                throw new IOException("invalid base64 character: " + (int)c);
             }
-
-            end--;
+            bytes[i] = (byte)c;
         }
 
-        int    i = 0;
-        int   finish = end - 4;
-
-        while (i < finish)
-        {
-            while ((i < finish) && ignore(data.charAt(i)))
-            {
-                i++;
-            }
-
-            b1 = decodingTable[data.charAt(i++)];
-
-            while ((i < finish) && ignore(data.charAt(i)))
-            {
-                i++;
-            }
-            b2 = decodingTable[data.charAt(i++)];
-
-            while ((i < finish) && ignore(data.charAt(i)))
-            {
-                i++;
-            }
-            b3 = decodingTable[data.charAt(i++)];
-
-            while ((i < finish) && ignore(data.charAt(i)))
-            {
-                i++;
-            }
-            b4 = decodingTable[data.charAt(i++)];
-
-            out.write((b1 << 2) | (b2 >> 4));
-            out.write((b2 << 4) | (b3 >> 2));
-            out.write((b3 << 6) | b4);
-
-            length += 3;
-        }
-
-        if (data.charAt(end - 2) == padding)
-        {
-            b1 = decodingTable[data.charAt(end - 4)];
-            b2 = decodingTable[data.charAt(end - 3)];
-
-            out.write((b1 << 2) | (b2 >> 4));
-
-            length += 1;
-        }
-        else if (data.charAt(end - 1) == padding)
-        {
-            b1 = decodingTable[data.charAt(end - 4)];
-            b2 = decodingTable[data.charAt(end - 3)];
-            b3 = decodingTable[data.charAt(end - 2)];
-
-            out.write((b1 << 2) | (b2 >> 4));
-            out.write((b2 << 4) | (b3 >> 2));
-
-            length += 2;
-        }
-        else
-        {
-            b1 = decodingTable[data.charAt(end - 4)];
-            b2 = decodingTable[data.charAt(end - 3)];
-            b3 = decodingTable[data.charAt(end - 2)];
-            b4 = decodingTable[data.charAt(end - 1)];
-
-            out.write((b1 << 2) | (b2 >> 4));
-            out.write((b2 << 4) | (b3 >> 2));
-            out.write((b3 << 6) | b4);
-
-            length += 3;
-        }
-
-        return length;
+        return decode(bytes, 0, bytes.length, out);
     }
 
     /**
@@ -348,89 +321,7 @@ public class Base64Encoder
      */
     public int decode(byte[] data, int off, int length, byte[] out) throws IOException
     {
-        byte[]    bytes;
-        byte    b1, b2, b3, b4;
-        int        outLen = 0;
-
-        int        end = off + length;
-
-        while (end > 0)
-        {
-            if (!ignore((char)data[end - 1]))
-            {
-                break;
-            }
-
-            end--;
-        }
-
-        int  i = off;
-        int  finish = end - 4;
-
-        while (i < finish)
-        {
-            while ((i < finish) && ignore((char)data[i]))
-            {
-                i++;
-            }
-
-            b1 = decodingTable[data[i++]];
-
-            while ((i < finish) && ignore((char)data[i]))
-            {
-                i++;
-            }
-
-            b2 = decodingTable[data[i++]];
-
-            while ((i < finish) && ignore((char)data[i]))
-            {
-                i++;
-            }
-
-            b3 = decodingTable[data[i++]];
-
-            while ((i < finish) && ignore((char)data[i]))
-            {
-                i++;
-            }
-
-            b4 = decodingTable[data[i++]];
-
-            out[outLen++] = (byte)((b1 << 2) | (b2 >> 4));
-            out[outLen++] = (byte)((b2 << 4) | (b3 >> 2));
-            out[outLen++] = (byte)((b3 << 6) | b4);
-        }
-
-        if (data[end - 2] == padding)
-        {
-            b1 = decodingTable[data[end - 4]];
-            b2 = decodingTable[data[end - 3]];
-
-            out[outLen++] = (byte)((b1 << 2) | (b2 >> 4));
-        }
-        else if (data[end - 1] == padding)
-        {
-            b1 = decodingTable[data[end - 4]];
-            b2 = decodingTable[data[end - 3]];
-            b3 = decodingTable[data[end - 2]];
-
-            out[outLen++] = (byte)((b1 << 2) | (b2 >> 4));
-            out[outLen++] = (byte)((b2 << 4) | (b3 >> 2));
-        }
-        else
-        {
-            b1 = decodingTable[data[end - 4]];
-            b2 = decodingTable[data[end - 3]];
-            b3 = decodingTable[data[end - 2]];
-            b4 = decodingTable[data[end - 1]];
-
-            out[outLen++] = (byte)((b1 << 2) | (b2 >> 4));
-            out[outLen++] = (byte)((b2 << 4) | (b3 >> 2));
-            out[outLen++] = (byte)((b3 << 6) | b4);
-        }
-
-        return outLen;
+        return decode(data, off, length, out, 0);
     }
 
     /**
@@ -651,6 +542,18 @@ public class Base64Encoder
      */
     public int estimateEncodedLength(byte[] data)
     {
-        return ((data.length + 2) / 3) * 4;
+        return estimateEncodedLength(data.length);
+    }
+
+    /**
+     * Calculate the size of the encoded form of the given number of bytes.
+     *
+     * @param length The number of bytes to encode.
+     *
+     * @return The size of the data in encoded form.
+     */
+    public int estimateEncodedLength(int length)
+    {
+        return ((length + 2) / 3) * 4;
     }
 }
@@ -0,0 +1,118 @@
+package org.coderthoughts.cloud.provisioning.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes base64 data read from the underlying stream on the fly. Whitespace in the encoded data is ignored.
+ * Only a fixed amount of data is buffered, regardless of the size of the stream.
+ */
+public class Base64InputStream extends FilterInputStream {
+    // A multiple of 4 so that a full buffer always holds complete groups of encoded characters
+    private static final int BUFFER_SIZE = 8192;
+    private static final Base64Encoder encoder = new Base64Encoder();
+
+    private final byte[] raw = new byte[BUFFER_SIZE];
+    private final byte[] encoded = new byte[BUFFER_SIZE];
+    private final byte[] decoded = new byte[BUFFER_SIZE / 4 * 3];
+    private int encodedCount;
+    private int pos;
+    private int limit;
+    private boolean eof;
+
+    public Base64InputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == limit && !fill())
+            return -1;
+        return decoded[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (pos == limit && !fill())
+            return -1;
+
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(decoded, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            if (pos == limit && !fill())
+                break;
+
+            int step = (int) Math.min(n - skipped, limit - pos);
+            pos += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return limit - pos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Decode the next block of data.
+     * @return {@code false} if the end of the data has been reached.
+     */
+    private boolean fill() throws IOException {
+        pos = 0;
+        limit = 0;
+        while (limit == 0) {
+            // Read until there's at least one complete group of 4 encoded characters
+            while (!eof && encodedCount < 4) {
+                int n = in.read(raw, 0, encoded.length - encodedCount);
+                if (n == -1) {
+                    eof = true;
+                    break;
+                }
+                for (int i=0; i < n; i++) {
+                    byte b = raw[i];
+                    if (b != '\n' && b != '\r' && b != '\t' && b != ' ')
+                        encoded[encodedCount++] = b;
+                }
+            }
+
+            int usable = encodedCount - encodedCount % 4;
+            if (usable == 0) {
+                if (encodedCount > 0)
+                    throw new IOException("Truncated base64 data");
+                return false;
+            }
+
+            limit = encoder.decode(encoded, 0, usable, decoded, 0);
+
+            // Keep an incomplete group for the next round
+            encodedCount -= usable;
+            System.arraycopy(encoded, usable, encoded, 0, encodedCount);
+        }
+        return true;
+    }
+}
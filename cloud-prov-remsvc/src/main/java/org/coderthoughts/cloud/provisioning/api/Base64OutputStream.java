@@ -0,0 +1,72 @@
+package org.coderthoughts.cloud.provisioning.api;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Base64 encodes the data written to it on the fly and writes the result to the underlying stream.
+ * The encoding is only complete once the stream is closed, as the final bytes can only be encoded then.
+ * Only a fixed amount of data is buffered, regardless of the size of the stream.
+ */
+public class Base64OutputStream extends FilterOutputStream {
+    // A multiple of 3 so that only the final block is padded
+    private static final int BUFFER_SIZE = 6144;
+    private static final Base64Encoder encoder = new Base64Encoder();
+
+    private final byte[] block = new byte[BUFFER_SIZE / 3 * 4];
+
+    // Up to 2 bytes that don't form a complete group of 3 yet
+    private final byte[] pending = new byte[3];
+    private int pendingCount;
+    private boolean closed;
+
+    public Base64OutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        pending[pendingCount++] = (byte) b;
+        if (pendingCount == 3) {
+            out.write(block, 0, encoder.encode(pending, 0, 3, block, 0));
+            pendingCount = 0;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // Complete the pending group first
+        while (pendingCount > 0 && len > 0) {
+            write(b[off++]);
+            len--;
+        }
+
+        int whole = len - len % 3;
+        for (int i = off; i < off + whole; i += BUFFER_SIZE) {
+            out.write(block, 0, encoder.encode(b, i, Math.min(BUFFER_SIZE, off + whole - i), block, 0));
+        }
+
+        for (int i = off + whole; i < off + len; i++) {
+            pending[pendingCount++] = b[i];
+        }
+    }
+
+    /**
+     * Writes the final, padded, group of the encoding and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        try {
+            if (pendingCount > 0)
+                out.write(block, 0, encoder.encode(pending, 0, pendingCount, block, 0));
+            pendingCount = 0;
+        } finally {
+            super.close();
+        }
+    }
+}
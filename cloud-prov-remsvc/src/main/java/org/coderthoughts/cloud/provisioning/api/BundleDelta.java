@@ -0,0 +1,123 @@
+package org.coderthoughts.cloud.provisioning.api;
+
+import java.io.Serializable;
+
+/**
+ * The difference between the content of an installed bundle and a new version of it, as passed to
+ * {@link RemoteDeployer#updateBundle(long, BundleDelta)}. It holds the entries that were added or changed
+ * and the names of those that were removed, every other entry is taken from the installed bundle. The bundle
+ * is rebuilt as a {@link RebuiltJar} holding the entries listed by {@link #getEntries()}, in that order.
+ */
+public class BundleDelta implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String baseSha256;
+    private String sha256;
+    private String[] entries = new String[0];
+    private String[] removedEntries = new String[0];
+    private String[] entryNames = new String[0];
+    private byte[][] entryData = new byte[0][];
+    private String transferEncoding = RemoteDeployer.TRANSFER_ENCODING_RAW;
+
+    public BundleDelta() {}
+
+    public BundleDelta(String baseSha256, String sha256) {
+        this.baseSha256 = baseSha256;
+        this.sha256 = sha256;
+    }
+
+    /**
+     * @return The {@link ContentDigest} of the bundle content this delta applies to. The update is refused if
+     * the installed bundle doesn't have this content.
+     */
+    public String getBaseSha256() {
+        return baseSha256;
+    }
+
+    public void setBaseSha256(String baseSha256) {
+        this.baseSha256 = baseSha256;
+    }
+
+    /**
+     * @return The {@link ContentDigest} of the {@link RebuiltJar} the bundle is rebuilt into. The update is
+     * refused if the rebuilt content doesn't have this digest, otherwise the bundle is known by it afterwards.
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    /**
+     * @return The paths of all the entries of the new bundle, in the order they are written to the rebuilt jar.
+     */
+    public String[] getEntries() {
+        return entries;
+    }
+
+    public void setEntries(String[] entries) {
+        this.entries = entries;
+    }
+
+    public String[] getRemovedEntries() {
+        return removedEntries;
+    }
+
+    public void setRemovedEntries(String[] removedEntries) {
+        this.removedEntries = removedEntries;
+    }
+
+    /**
+     * @return The paths of the added and changed entries.
+     */
+    public String[] getEntryNames() {
+        return entryNames;
+    }
+
+    public void setEntryNames(String[] entryNames) {
+        this.entryNames = entryNames;
+    }
+
+    /**
+     * @return The uncompressed content of the added and changed entries, in the same order as {@link #getEntryNames()}
+     * and in the transfer encoding of this delta.
+     */
+    public byte[][] getEntryData() {
+        return entryData;
+    }
+
+    public void setEntryData(byte[][] entryData) {
+        this.entryData = entryData;
+    }
+
+    public String getTransferEncoding() {
+        return transferEncoding;
+    }
+
+    /**
+     * @param transferEncoding One of the encodings in the {@link RemoteDeployer#TRANSFER_ENCODINGS} property,
+     * {@link RemoteDeployer#TRANSFER_ENCODING_RAW} by default.
+     */
+    public void setTransferEncoding(String transferEncoding) {
+        this.transferEncoding = transferEncoding;
+    }
+
+    /**
+     * @return The number of content bytes in this delta, as sent.
+     */
+    public long size() {
+        long size = 0;
+        for (byte[] data : entryData) {
+            size += data.length;
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "BundleDelta [baseSha256=" + baseSha256 + ", sha256=" + sha256 + ", changed=" + entryNames.length +
+                ", removed=" + removedEntries.length + ", bytes=" + size() + "]";
+    }
+}
@@ -0,0 +1,89 @@
+package org.coderthoughts.cloud.provisioning.api;
+
+import java.io.Serializable;
+
+/**
+ * Describes a single bundle in a {@link BundleInventory}.
+ */
+public class BundleInfo implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private long bundleID = -1;
+    private String location;
+    private String symbolicName;
+    private String version;
+    private int state;
+    private String sha256;
+
+    public BundleInfo() {}
+
+    public BundleInfo(long bundleID, String location, String symbolicName, String version, int state, String sha256) {
+        this.bundleID = bundleID;
+        this.location = location;
+        this.symbolicName = symbolicName;
+        this.version = version;
+        this.state = state;
+        this.sha256 = sha256;
+    }
+
+    public long getBundleID() {
+        return bundleID;
+    }
+
+    public void setBundleID(long bundleID) {
+        this.bundleID = bundleID;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
+    public String getSymbolicName() {
+        return symbolicName;
+    }
+
+    public void setSymbolicName(String symbolicName) {
+        this.symbolicName = symbolicName;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    /**
+     * @return The bundle state, one of the state constants on {@link org.osgi.framework.Bundle}.
+     */
+    public int getState() {
+        return state;
+    }
+
+    public void setState(int state) {
+        this.state = state;
+    }
+
+    /**
+     * @return The {@link ContentDigest} of the bundle content, or {@code null} if the bundle wasn't installed
+     * through the {@link RemoteDeployer}.
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    @Override
+    public String toString() {
+        return "BundleInfo [bundleID=" + bundleID + ", location=" + location + ", symbolicName=" + symbolicName +
+                ", version=" + version + ", state=" + state + "]";
+    }
+}
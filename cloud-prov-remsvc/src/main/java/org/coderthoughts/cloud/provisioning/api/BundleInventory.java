@@ -0,0 +1,77 @@
+package org.coderthoughts.cloud.provisioning.api;
+
+import java.io.Serializable;
+
+/**
+ * The bundles in a framework as returned by {@link RemoteDeployer#getInventory()}, or the changes to them
+ * as returned by {@link RemoteDeployer#getInventorySince(long)}.
+ */
+public class BundleInventory implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private long generation;
+    private boolean complete;
+    private BundleInfo[] bundles = new BundleInfo[0];
+    private long[] removedBundleIDs = new long[0];
+
+    public BundleInventory() {}
+
+    public BundleInventory(long generation, boolean complete, BundleInfo[] bundles, long[] removedBundleIDs) {
+        this.generation = generation;
+        this.complete = complete;
+        this.bundles = bundles;
+        this.removedBundleIDs = removedBundleIDs;
+    }
+
+    /**
+     * @return The generation of the inventory, pass it to {@link RemoteDeployer#getInventorySince(long)} to
+     * obtain the changes that happen after this inventory was taken.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(long generation) {
+        this.generation = generation;
+    }
+
+    /**
+     * @return {@code true} if this inventory lists every bundle in the framework and any previously held
+     * inventory should be replaced by it, {@code false} if it only holds the changes since the requested generation.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    /**
+     * @return The bundles, or for a delta the bundles that were installed or changed.
+     */
+    public BundleInfo[] getBundles() {
+        return bundles;
+    }
+
+    public void setBundles(BundleInfo[] bundles) {
+        this.bundles = bundles;
+    }
+
+    /**
+     * @return For a delta the IDs of the bundles that were uninstalled, empty for a complete inventory.
+     */
+    public long[] getRemovedBundleIDs() {
+        return removedBundleIDs;
+    }
+
+    public void setRemovedBundleIDs(long[] removedBundleIDs) {
+        this.removedBundleIDs = removedBundleIDs;
+    }
+
+    @Override
+    public String toString() {
+        return "BundleInventory [generation=" + generation + ", complete=" + complete + ", bundles=" + bundles.length +
+                ", removed=" + removedBundleIDs.length + "]";
+    }
+}
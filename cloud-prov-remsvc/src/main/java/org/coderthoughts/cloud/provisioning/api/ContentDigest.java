@@ -0,0 +1,52 @@
+package org.coderthoughts.cloud.provisioning.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the content digests used by the {@link RemoteDeployer} to identify bundle content.
+ */
+public class ContentDigest {
+    public static final String ALGORITHM = "SHA-256";
+
+    private static final char [] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentDigest() {}
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " not available", e);
+        }
+    }
+
+    /**
+     * Read the stream to the end and compute its digest. The stream is closed afterwards.
+     * @return The digest as a lower case hex string.
+     */
+    public static String digest(InputStream is) throws IOException {
+        MessageDigest md = newDigest();
+        try {
+            byte [] buffer = new byte[8192];
+            int length;
+            while ((length = is.read(buffer)) != -1) {
+                md.update(buffer, 0, length);
+            }
+        } finally {
+            is.close();
+        }
+        return toHex(md.digest());
+    }
+
+    public static String toHex(byte [] digest) {
+        char [] chars = new char[digest.length * 2];
+        for (int i=0; i < digest.length; i++) {
+            chars[i * 2] = HEX[(digest[i] >>> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,116 @@
+package org.coderthoughts.cloud.provisioning.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The codecs for the content encodings that bundle content can be sent in, see
+ * {@link RemoteDeployer#CONTENT_ENCODINGS}. A content encoding is applied to the bundle content before
+ * the transfer encoding and is undone by the target after the transfer encoding, so that bundles can be
+ * compressed on their way to the target.
+ */
+public class ContentEncoding {
+    private static final Map<String, Codec> codecs = new ConcurrentHashMap<String, Codec>();
+    static {
+        register(RemoteDeployer.CONTENT_ENCODING_DEFLATE, new DeflateCodec());
+    }
+
+    private ContentEncoding() {}
+
+    public interface Codec {
+        /**
+         * @param out The stream to write the encoded content to.
+         * @param level The codec specific compression level.
+         * @return A stream that encodes the content written to it. Closing it closes {@code out}.
+         */
+        OutputStream encode(OutputStream out, int level) throws IOException;
+
+        /**
+         * @return A stream that decodes the content read from {@code in}. Closing it closes {@code in}.
+         */
+        InputStream decode(InputStream in) throws IOException;
+    }
+
+    public static void register(String encoding, Codec codec) {
+        codecs.put(encoding, codec);
+    }
+
+    /**
+     * @return The content encodings that can be used, not including {@link RemoteDeployer#CONTENT_ENCODING_IDENTITY}
+     * which is always supported.
+     */
+    public static String [] getSupported() {
+        return codecs.keySet().toArray(new String[0]);
+    }
+
+    public static boolean isSupported(String encoding) {
+        return isIdentity(encoding) || codecs.containsKey(encoding);
+    }
+
+    public static boolean isIdentity(String encoding) {
+        return encoding == null || RemoteDeployer.CONTENT_ENCODING_IDENTITY.equals(encoding);
+    }
+
+    public static OutputStream encode(String encoding, OutputStream out, int level) throws IOException {
+        if (isIdentity(encoding))
+            return out;
+        return getCodec(encoding).encode(out, level);
+    }
+
+    public static byte [] encode(String encoding, byte [] data, int level) throws IOException {
+        if (isIdentity(encoding))
+            return data;
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 2);
+        OutputStream os = encode(encoding, baos, level);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+        return baos.toByteArray();
+    }
+
+    public static InputStream decode(String encoding, InputStream in) throws IOException {
+        if (isIdentity(encoding))
+            return in;
+        return getCodec(encoding).decode(in);
+    }
+
+    private static Codec getCodec(String encoding) throws IOException {
+        Codec codec = codecs.get(encoding);
+        if (codec == null)
+            throw new IOException("Unsupported content encoding: " + encoding);
+        return codec;
+    }
+
+    private static class DeflateCodec implements Codec {
+        @Override
+        public OutputStream encode(OutputStream out, int level) {
+            final Deflater deflater = new Deflater(level);
+            return new DeflaterOutputStream(out, deflater, 8192) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        // Not done by the stream itself when it's given a deflater
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream decode(InputStream in) {
+            return new InflaterInputStream(in);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.coderthoughts.cloud.provisioning.api;
+
+import java.io.Serializable;
+
+/**
+ * A single bundle in a {@link RemoteDeployer#deploy(DeploymentRequest[])} batch. The content can be left out,
+ * in which case the bundle is only deployed if the target already has content with the given digest.
+ */
+public class DeploymentRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String location;
+    private String sha256;
+    private byte [] data;
+    private String transferEncoding = RemoteDeployer.TRANSFER_ENCODING_BASE64;
+    private String contentEncoding = RemoteDeployer.CONTENT_ENCODING_IDENTITY;
+    private boolean start = true;
+
+    public DeploymentRequest() {}
+
+    public DeploymentRequest(String location, String sha256) {
+        this.location = location;
+        this.sha256 = sha256;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    public byte [] getData() {
+        return data;
+    }
+
+    /**
+     * @param data The bundle content, in the transfer encoding of this request.
+     */
+    public void setData(byte [] data) {
+        this.data = data;
+    }
+
+    public String getTransferEncoding() {
+        return transferEncoding;
+    }
+
+    /**
+     * @param transferEncoding One of the encodings in the {@link RemoteDeployer#TRANSFER_ENCODINGS} property.
+     */
+    public void setTransferEncoding(String transferEncoding) {
+        this.transferEncoding = transferEncoding;
+    }
+
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * @param contentEncoding One of the encodings in the {@link RemoteDeployer#CONTENT_ENCODINGS} property, or
+     * {@link RemoteDeployer#CONTENT_ENCODING_IDENTITY}.
+     */
+    public void setContentEncoding(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    public boolean isStart() {
+        return start;
+    }
+
+    public void setStart(boolean start) {
+        this.start = start;
+    }
+}
@@ -0,0 +1,82 @@
+package org.coderthoughts.cloud.provisioning.api;
+
+import java.io.Serializable;
+
+/**
+ * The outcome for a single {@link DeploymentRequest} of a {@link RemoteDeployer#deploy(DeploymentRequest[])} batch.
+ */
+public class DeploymentResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** The bundle was installed from the content sent with the request. */
+    public static final int INSTALLED = 0;
+
+    /** The target already had the content, nothing was installed. */
+    public static final int PRESENT = 1;
+
+    /** The target doesn't have the content, it needs to be sent. */
+    public static final int CONTENT_REQUIRED = 2;
+
+    /** Installing or starting the bundle failed, see the message. */
+    public static final int FAILED = 3;
+
+    private String location;
+    private long bundleID = -1;
+    private int status;
+    private boolean started;
+    private String message;
+
+    public DeploymentResult() {}
+
+    public DeploymentResult(String location, long bundleID, int status) {
+        this.location = location;
+        this.bundleID = bundleID;
+        this.status = status;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
+    public long getBundleID() {
+        return bundleID;
+    }
+
+    public void setBundleID(long bundleID) {
+        this.bundleID = bundleID;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    public void setStarted(boolean started) {
+        this.started = started;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        return "DeploymentResult [location=" + location + ", bundleID=" + bundleID + ", status=" + status +
+                ", started=" + started + (message != null ? ", message=" + message : "") + "]";
+    }
+}
@@ -0,0 +1,58 @@
+package org.coderthoughts.cloud.provisioning.api;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@link ContentDigest}s of the entries of an installed bundle as returned by
+ * {@link RemoteDeployer#getEntryDigests(long)}. Directory entries are not included.
+ */
+public class EntryDigests implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String[] names = new String[0];
+    private String[] sha256s = new String[0];
+
+    public EntryDigests() {}
+
+    public EntryDigests(String[] names, String[] sha256s) {
+        this.names = names;
+        this.sha256s = sha256s;
+    }
+
+    /**
+     * @return The entry paths, without a leading slash.
+     */
+    public String[] getNames() {
+        return names;
+    }
+
+    public void setNames(String[] names) {
+        this.names = names;
+    }
+
+    /**
+     * @return The digests of the entries, in the same order as {@link #getNames()}.
+     */
+    public String[] getSha256s() {
+        return sha256s;
+    }
+
+    public void setSha256s(String[] sha256s) {
+        this.sha256s = sha256s;
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> map = new HashMap<String, String>(names.length * 2);
+        for (int i=0; i < names.length; i++) {
+            map.put(names[i], sha256s[i]);
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return "EntryDigests [entries=" + names.length + "]";
+    }
+}
@@ -0,0 +1,68 @@
+package org.coderthoughts.cloud.provisioning.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the jar that a bundle is rebuilt into when a {@link BundleDelta} is applied. Every entry gets the
+ * same time and is stored uncompressed, with its size and CRC written up front, so the same entries in the
+ * same order always give the same bytes regardless of the zlib version at either end. This lets the sender
+ * of a delta work out the {@link ContentDigest} of the rebuilt bundle up front, and the receiver check it.
+ */
+public class RebuiltJar {
+    // Before 1980, which zip stores the same way in every time zone
+    private static final long ENTRY_TIME = 0;
+
+    private final ZipOutputStream zos;
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[8192];
+
+    public RebuiltJar(OutputStream out) {
+        zos = new ZipOutputStream(out);
+        zos.setMethod(ZipOutputStream.STORED);
+    }
+
+    /**
+     * Add an entry, the content stream is closed afterwards.
+     */
+    public void addEntry(String name, InputStream content) throws IOException {
+        // The size and CRC of a stored entry go before its data, so it's read completely first
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try {
+            int length;
+            while ((length = content.read(buffer)) != -1) {
+                data.write(buffer, 0, length);
+            }
+        } finally {
+            content.close();
+        }
+        addEntry(name, data.toByteArray());
+    }
+
+    public void addEntry(String name, byte[] content) throws IOException {
+        crc.reset();
+        crc.update(content);
+
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(ENTRY_TIME);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        entry.setCrc(crc.getValue());
+        zos.putNextEntry(entry);
+        zos.write(content);
+        zos.closeEntry();
+    }
+
+    /**
+     * Finish the jar and close the underlying stream.
+     */
+    public void close() throws IOException {
+        zos.close();
+    }
+}
@@ -3,11 +3,141 @@ package org.coderthoughts.cloud.provisioning.api;
 import org.osgi.framework.BundleException;
 
 public interface RemoteDeployer {
+    /**
+     * Service property listing the transfer encodings accepted for bundle content. If the
+     * property is absent only {@link #TRANSFER_ENCODING_BASE64} can be used.
+     */
+    String TRANSFER_ENCODINGS = "org.coderthoughts.cloud.provisioning.transfer.encodings";
+
+    /** Bundle content is sent base64 encoded, this works with every distribution provider. */
+    String TRANSFER_ENCODING_BASE64 = "base64";
+
+    /** Bundle content is sent as plain bytes, only for distribution providers that can carry a byte array as is. */
+    String TRANSFER_ENCODING_RAW = "raw";
+
+    /**
+     * Service property listing the content encodings, other than {@link #CONTENT_ENCODING_IDENTITY}, that bundle
+     * content can be sent in. See {@link ContentEncoding}. If the property is absent content can only be sent as is.
+     */
+    String CONTENT_ENCODINGS = "org.coderthoughts.cloud.provisioning.content.encodings";
+
+    /** Bundle content is sent as is. */
+    String CONTENT_ENCODING_IDENTITY = "identity";
+
+    /** Bundle content is sent compressed with {@link java.util.zip.Deflater}. */
+    String CONTENT_ENCODING_DEFLATE = "deflate";
+
     long getBundleID(String location);
     String getSymbolicName(long id);
+
+    /**
+     * Look up an installed bundle by its identity rather than its location.
+     * @param symbolicName The Bundle-SymbolicName.
+     * @param version The Bundle-Version.
+     * @return The ID of the bundle with this symbolic name and version, or -1 if there isn't one.
+     */
+    long findBundleID(String symbolicName, String version);
     long installBundle(String location, byte [] base64Data) throws BundleException;
+    long installBundleRaw(String location, byte [] data) throws BundleException;
     long [] listBundleIDs();
+
+    /**
+     * Describe all the bundles in the framework in a single call.
+     * @return The inventory of the framework.
+     */
+    BundleInventory getInventory();
+
+    /**
+     * Describe the bundles that changed since an earlier inventory was taken. If the changes since then are no
+     * longer known a complete inventory is returned instead, check {@link BundleInventory#isComplete()}.
+     * @param generation The generation of the earlier inventory.
+     * @return The changes since the given generation.
+     */
+    BundleInventory getInventorySince(long generation);
+
+    /**
+     * Check whether the framework already has a bundle with the given content, so that the content
+     * only needs to be sent if it's not there yet. The check is done on content, not on location:
+     * a bundle with the same content at a different location counts, a changed bundle at the same
+     * location doesn't. Sending changed content for an existing location updates that bundle.
+     * @param location The location the bundle is to be installed at.
+     * @param sha256 The {@link ContentDigest} of the bundle content.
+     * @return The ID of the bundle with this content, or -1 if the content needs to be sent.
+     */
+    long installIfAbsent(String location, String sha256);
+
+    /**
+     * Deploy a set of bundles in one call. All bundles are installed before any of them is started, and
+     * nothing is started unless every bundle in the set could be installed.
+     * @param requests The bundles to deploy.
+     * @return A result for each request, in the same order.
+     */
+    DeploymentResult [] deploy(DeploymentRequest [] requests);
+
+    /**
+     * @param id The ID of an installed bundle.
+     * @return The digests of the entries of the bundle, to compute a {@link BundleDelta} against.
+     */
+    EntryDigests getEntryDigests(long id);
+
+    /**
+     * Update a bundle to a new version by sending only the entries that differ from the installed one. The
+     * new bundle is assembled from the installed entries and the delta. The entries of the delta are sent in
+     * its {@link BundleDelta#getTransferEncoding()}, one of those in the {@link #TRANSFER_ENCODINGS} property.
+     * @param id The ID of the bundle to update.
+     * @param delta The changes, computed against the installed bundle's {@link #getEntryDigests(long)}.
+     * @return The ID of the bundle.
+     * @throws BundleException If the installed bundle doesn't have the content the delta is based on, the
+     * rebuilt bundle doesn't have the digest of the delta, or the update fails. Send the whole bundle instead.
+     */
+    long updateBundle(long id, BundleDelta delta) throws BundleException;
     void startBundle(long id) throws BundleException;
     void stopBundle(long id) throws BundleException;
     void uninstallBundle(long id) throws BundleException;
+
+    /**
+     * Start a chunked upload of a bundle. The bundle content is subsequently sent with
+     * {@link #appendChunk(String, byte[])} and installed when {@link #commitInstall(String)}
+     * is called.
+     * @param location The location to install the bundle at.
+     * @return The ID of the upload session.
+     */
+    String beginInstall(String location);
+
+    /**
+     * Start a chunked upload of a bundle with content in the given content encoding. Otherwise the same as
+     * {@link #beginInstall(String)}.
+     * @param location The location to install the bundle at.
+     * @param contentEncoding One of the encodings in the {@link #CONTENT_ENCODINGS} property.
+     * @return The ID of the upload session.
+     */
+    String beginEncodedInstall(String location, String contentEncoding);
+
+    /**
+     * Append the next chunk of bundle content to an upload session.
+     * @param sessionID The upload session.
+     * @param base64Data The chunk, base64 encoded. Each chunk is decoded on its own.
+     */
+    void appendChunk(String sessionID, byte [] base64Data);
+
+    /**
+     * Append the next chunk of bundle content to an upload session, without any encoding.
+     * Only available if the {@link #TRANSFER_ENCODINGS} property lists {@link #TRANSFER_ENCODING_RAW}.
+     * @param sessionID The upload session.
+     * @param data The chunk.
+     */
+    void appendRawChunk(String sessionID, byte [] data);
+
+    /**
+     * Install the bundle from all the chunks received for the upload session.
+     * @param sessionID The upload session.
+     * @return The bundle ID of the installed bundle.
+     */
+    long commitInstall(String sessionID) throws BundleException;
+
+    /**
+     * Discard an upload session and any content received for it.
+     * @param sessionID The upload session.
+     */
+    void abortInstall(String sessionID);
 }
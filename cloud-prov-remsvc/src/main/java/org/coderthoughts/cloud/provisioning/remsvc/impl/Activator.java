@@ -1,6 +1,8 @@
 package org.coderthoughts.cloud.provisioning.remsvc.impl;
 
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
 
 import org.coderthoughts.cloud.provisioning.api.RemoteDeployer;
 import org.osgi.framework.BundleActivator;
@@ -8,20 +10,45 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
 
 public class Activator implements BundleActivator {
+    // Raw only works with distribution providers that carry byte arrays as is, so it has to be enabled explicitly
+    private static final String DEFAULT_TRANSFER_ENCODINGS = RemoteDeployer.TRANSFER_ENCODING_BASE64;
+    private static final String DEFAULT_CONTENT_ENCODINGS = RemoteDeployer.CONTENT_ENCODING_DEFLATE;
+
+    private RemoteDeployerImpl rd;
     private ServiceRegistration reg;
 
     @Override
     public void start(BundleContext context) throws Exception {
-        RemoteDeployer rd = new RemoteDeployerImpl(context);
+        rd = new RemoteDeployerImpl(context);
+        rd.open();
 
         Hashtable<String, Object> props = new Hashtable<String, Object>();
         props.put("service.exported.interfaces", "*");
         props.put("service.exported.configs", new String [] {"org.coderthoughts.configtype.cloud", "<<nodefault>>"});
+        props.put(RemoteDeployer.TRANSFER_ENCODINGS, getEncodings(context, RemoteDeployer.TRANSFER_ENCODINGS, DEFAULT_TRANSFER_ENCODINGS));
+        props.put(RemoteDeployer.CONTENT_ENCODINGS, getEncodings(context, RemoteDeployer.CONTENT_ENCODINGS, DEFAULT_CONTENT_ENCODINGS));
         reg = context.registerService(RemoteDeployer.class.getName(), rd, props);
     }
 
+    // The encodings can be overridden with a framework property of the same name, e.g. to add raw when the
+    // distribution provider in use can carry byte arrays as is.
+    private String [] getEncodings(BundleContext context, String key, String defaultEncodings) {
+        String encodings = context.getProperty(key);
+        if (encodings == null)
+            encodings = defaultEncodings;
+
+        // Blank entries, e.g. from a trailing comma, aren't encodings
+        List<String> values = new ArrayList<String>();
+        for (String value : encodings.split(",")) {
+            if (value.trim().length() > 0)
+                values.add(value.trim());
+        }
+        return values.toArray(new String[values.size()]);
+    }
+
     @Override
     public void stop(BundleContext context) throws Exception {
         reg.unregister();
+        rd.close();
     }
 }
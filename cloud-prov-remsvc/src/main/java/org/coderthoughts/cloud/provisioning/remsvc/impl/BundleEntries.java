@@ -0,0 +1,107 @@
+package org.coderthoughts.cloud.provisioning.remsvc.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+
+import org.coderthoughts.cloud.provisioning.api.Base64;
+import org.coderthoughts.cloud.provisioning.api.BundleDelta;
+import org.coderthoughts.cloud.provisioning.api.ContentDigest;
+import org.coderthoughts.cloud.provisioning.api.EntryDigests;
+import org.coderthoughts.cloud.provisioning.api.RebuiltJar;
+import org.coderthoughts.cloud.provisioning.api.RemoteDeployer;
+import org.osgi.framework.Bundle;
+
+/**
+ * Reads the entries of installed bundles, to compute their {@link EntryDigests} and to rebuild them with a
+ * {@link BundleDelta} applied. Entries are read through {@link Bundle#getEntry(String)}, so this works for
+ * any installed bundle regardless of how the framework stores it.
+ */
+class BundleEntries {
+    private BundleEntries() {}
+
+    static EntryDigests digest(Bundle bundle) throws IOException {
+        List<String> names = list(bundle);
+        String[] sha256s = new String[names.size()];
+        for (int i=0; i < sha256s.length; i++) {
+            sha256s[i] = ContentDigest.digest(open(bundle, names.get(i)));
+        }
+        return new EntryDigests(names.toArray(new String[names.size()]), sha256s);
+    }
+
+    /**
+     * Write the content of the bundle with the delta applied, as a {@link RebuiltJar}. The stream is closed
+     * afterwards.
+     */
+    static void apply(Bundle bundle, BundleDelta delta, OutputStream out) throws IOException {
+        String[] names = delta.getEntryNames();
+        byte[][] data = delta.getEntryData();
+        if (names.length != data.length)
+            throw new IllegalArgumentException("Delta has " + names.length + " entry names but " + data.length + " entries");
+
+        boolean raw = RemoteDeployer.TRANSFER_ENCODING_RAW.equals(delta.getTransferEncoding());
+        Map<String, byte[]> replaced = new HashMap<String, byte[]>();
+        for (int i=0; i < names.length; i++) {
+            replaced.put(names[i], raw ? data[i] : decode(names[i], data[i]));
+        }
+
+        // Entries that aren't in the delta are taken from the bundle, they have to be there
+        RebuiltJar jar = new RebuiltJar(out);
+        try {
+            for (String name : delta.getEntries()) {
+                byte[] content = replaced.get(name);
+                if (content != null)
+                    jar.addEntry(name, content);
+                else
+                    jar.addEntry(name, open(bundle, name));
+            }
+        } finally {
+            jar.close();
+        }
+    }
+
+    private static byte[] decode(String name, byte[] base64) throws IOException {
+        try {
+            return Base64.decode(base64);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid base64 content for entry " + name, e);
+        }
+    }
+
+    // All file entries of the bundle, manifest first, directories left out
+    private static List<String> list(Bundle bundle) {
+        List<String> names = new ArrayList<String>();
+        list(bundle, "/", names);
+        if (names.remove(JarFile.MANIFEST_NAME))
+            names.add(0, JarFile.MANIFEST_NAME);
+        return names;
+    }
+
+    private static void list(Bundle bundle, String path, List<String> names) {
+        Enumeration<?> paths = bundle.getEntryPaths(path);
+        if (paths == null)
+            return;
+
+        while (paths.hasMoreElements()) {
+            String entry = (String) paths.nextElement();
+            if (entry.endsWith("/"))
+                list(bundle, entry, names);
+            else
+                names.add(entry);
+        }
+    }
+
+    private static InputStream open(Bundle bundle, String name) throws IOException {
+        URL url = bundle.getEntry(name);
+        if (url == null)
+            throw new IOException("Entry " + name + " disappeared from bundle " + bundle.getBundleId());
+        return url.openStream();
+    }
+}
@@ -0,0 +1,220 @@
+package org.coderthoughts.cloud.provisioning.remsvc.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.coderthoughts.cloud.provisioning.api.BundleInfo;
+import org.coderthoughts.cloud.provisioning.api.BundleInventory;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.Version;
+
+/**
+ * Keeps the bundles in the framework indexed by location and by symbolic name and version, so that
+ * lookups don't need to go through {@link BundleContext#getBundles()}. The index is maintained by a
+ * synchronous listener, so it's up to date by the time an install, update or uninstall call returns.
+ * <p>
+ * Every change is also given a generation number, so that callers holding an inventory taken at some
+ * generation can be sent just what changed since.
+ */
+class BundleIndex implements SynchronousBundleListener {
+    // The number of uninstalled bundles remembered for inventory deltas
+    private static final int MAX_TOMBSTONES = 1024;
+
+    private final BundleContext bundleContext;
+    private final ConcurrentMap<String, Long> bundlesByLocation = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<String, Long> bundlesByName = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<Long, String> namesByBundle = new ConcurrentHashMap<Long, String>();
+
+    // Cleared on every change and rebuilt on the next listBundleIDs() call
+    private volatile long [] ids;
+
+    // Guarded by this. Generations start at the current time so that they keep increasing when this
+    // bundle is restarted, and an inventory from before then is never mistaken for a recent one.
+    private long generation = System.currentTimeMillis();
+    private long forgottenGeneration = generation;
+    private final Map<Long, Long> changes = new HashMap<Long, Long>();
+    private final Map<Long, Long> tombstones = new LinkedHashMap<Long, Long>();
+
+    BundleIndex(BundleContext context) {
+        bundleContext = context;
+    }
+
+    void open() {
+        // Register first so that nothing installed while populating is missed
+        bundleContext.addBundleListener(this);
+        for (Bundle b : bundleContext.getBundles()) {
+            if (b.getState() != Bundle.UNINSTALLED)
+                add(b);
+        }
+    }
+
+    void close() {
+        bundleContext.removeBundleListener(this);
+        bundlesByLocation.clear();
+        bundlesByName.clear();
+        namesByBundle.clear();
+        ids = null;
+        synchronized (this) {
+            changes.clear();
+            tombstones.clear();
+            forgottenGeneration = generation;
+        }
+    }
+
+    @Override
+    public synchronized void bundleChanged(BundleEvent event) {
+        Bundle bundle = event.getBundle();
+        switch (event.getType()) {
+        case BundleEvent.INSTALLED:
+            add(bundle);
+            return;
+        case BundleEvent.UPDATED:
+            // The symbolic name or version may have changed, the location never does
+            remove(bundle);
+            add(bundle);
+            return;
+        case BundleEvent.UNINSTALLED:
+            remove(bundle);
+            tombstone(bundle.getBundleId());
+            return;
+        }
+        // Any other event is a state change
+        touch(bundle.getBundleId());
+    }
+
+    /**
+     * Record that something about a bundle changed that isn't reported by a bundle event, such as its
+     * content digest.
+     */
+    synchronized void touch(long id) {
+        changes.put(id, ++generation);
+    }
+
+    /**
+     * @return All the bundles in the framework.
+     */
+    synchronized BundleInventory getInventory(ContentIndex contentIndex) {
+        List<BundleInfo> infos = new ArrayList<BundleInfo>(bundlesByLocation.size());
+        for (Long id : bundlesByLocation.values()) {
+            addInfo(infos, id, contentIndex);
+        }
+        return new BundleInventory(generation, true, infos.toArray(new BundleInfo[infos.size()]), new long[0]);
+    }
+
+    /**
+     * @return The bundles that changed after the given generation, or all bundles if those changes
+     * aren't known any more.
+     */
+    synchronized BundleInventory getInventorySince(long since, ContentIndex contentIndex) {
+        if (since < forgottenGeneration || since > generation)
+            return getInventory(contentIndex);
+
+        List<BundleInfo> infos = new ArrayList<BundleInfo>();
+        for (Map.Entry<Long, Long> entry : changes.entrySet()) {
+            if (entry.getValue() > since)
+                addInfo(infos, entry.getKey(), contentIndex);
+        }
+
+        List<Long> removed = new ArrayList<Long>();
+        for (Map.Entry<Long, Long> entry : tombstones.entrySet()) {
+            if (entry.getValue() > since)
+                removed.add(entry.getKey());
+        }
+        long[] removedIDs = new long[removed.size()];
+        for (int i=0; i < removedIDs.length; i++) {
+            removedIDs[i] = removed.get(i);
+        }
+        return new BundleInventory(generation, false, infos.toArray(new BundleInfo[infos.size()]), removedIDs);
+    }
+
+    private void addInfo(List<BundleInfo> infos, long id, ContentIndex contentIndex) {
+        Bundle bundle = bundleContext.getBundle(id);
+        if (bundle == null)
+            return;
+
+        infos.add(new BundleInfo(id, bundle.getLocation(), bundle.getSymbolicName(), bundle.getVersion().toString(),
+                bundle.getState(), contentIndex.getDigest(bundle)));
+    }
+
+    private void tombstone(long id) {
+        changes.remove(id);
+        tombstones.put(id, generation);
+        if (tombstones.size() > MAX_TOMBSTONES) {
+            // Deltas from before the oldest tombstone can't be computed any more
+            Iterator<Long> it = tombstones.values().iterator();
+            forgottenGeneration = it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * @return The ID of the bundle installed at the given location or -1 if there isn't one.
+     */
+    long getBundleID(String location) {
+        Long id = bundlesByLocation.get(location);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @return The ID of the bundle with the given symbolic name and version or -1 if there isn't one.
+     */
+    long getBundleID(String symbolicName, String version) {
+        Long id = bundlesByName.get(getNameKey(symbolicName, Version.parseVersion(version).toString()));
+        return id != null ? id : -1;
+    }
+
+    long [] listBundleIDs() {
+        long [] result = ids;
+        if (result == null)
+            result = snapshot();
+        return result.clone();
+    }
+
+    private synchronized long [] snapshot() {
+        if (ids == null) {
+            long [] result = new long[bundlesByLocation.size()];
+            int i = 0;
+            for (Long id : bundlesByLocation.values()) {
+                result[i++] = id;
+            }
+            ids = result;
+        }
+        return ids;
+    }
+
+    private synchronized void add(Bundle bundle) {
+        Long id = bundle.getBundleId();
+        tombstones.remove(id);
+        changes.put(id, ++generation);
+        bundlesByLocation.put(bundle.getLocation(), id);
+        if (bundle.getSymbolicName() != null) {
+            String name = getNameKey(bundle.getSymbolicName(), bundle.getVersion().toString());
+            bundlesByName.put(name, id);
+            namesByBundle.put(id, name);
+        }
+        ids = null;
+    }
+
+    private synchronized void remove(Bundle bundle) {
+        Long id = bundle.getBundleId();
+        generation++;
+        String name = namesByBundle.remove(id);
+        if (name != null)
+            bundlesByName.remove(name, id);
+        bundlesByLocation.remove(bundle.getLocation(), id);
+        ids = null;
+    }
+
+    private static String getNameKey(String symbolicName, String version) {
+        return symbolicName + "_" + version;
+    }
+}
@@ -0,0 +1,167 @@
+package org.coderthoughts.cloud.provisioning.remsvc.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Maps the content digests of bundles installed through the RemoteDeployer to their bundle IDs.
+ * <p>
+ * The index is saved to a file on every change and loaded again when this bundle is restarted, so that
+ * content that is already installed is still recognised afterwards. Entries are only taken back if the
+ * bundle is still there and hasn't been modified since.
+ */
+class ContentIndex {
+    private final BundleContext bundleContext;
+    private final File file;
+    private final Map<String, Entry> bundlesByDigest = new HashMap<String, Entry>();
+    private final Map<Long, String> digestsByBundle = new HashMap<Long, String>();
+
+    /**
+     * @param file The file to keep the index in, or {@code null} to keep it in memory only.
+     */
+    ContentIndex(BundleContext context, File file) {
+        bundleContext = context;
+        this.file = file;
+    }
+
+    synchronized void open() {
+        if (file == null || !file.isFile())
+            return;
+
+        Properties props = new Properties();
+        try {
+            InputStream is = new FileInputStream(file);
+            try {
+                props.load(is);
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            System.out.println("*** Unable to read the content index from " + file + ": " + e);
+            return;
+        }
+
+        for (String digest : props.stringPropertyNames()) {
+            String[] value = props.getProperty(digest).split(" ");
+            try {
+                long id = Long.parseLong(value[0]);
+                long lastModified = Long.parseLong(value[1]);
+                Bundle bundle = bundleContext.getBundle(id);
+                if (bundle != null && bundle.getLastModified() == lastModified)
+                    add(digest, new Entry(id, lastModified));
+            } catch (RuntimeException e) {
+                System.out.println("*** Ignoring invalid content index entry for " + digest + ": " + props.getProperty(digest));
+            }
+        }
+    }
+
+    /**
+     * Each digest maps to one bundle, if another bundle was known by the same content it no longer is.
+     */
+    synchronized void put(Bundle bundle, String digest) {
+        forget(bundle.getBundleId());
+        add(digest, new Entry(bundle.getBundleId(), bundle.getLastModified()));
+        save();
+    }
+
+    synchronized void remove(long id) {
+        if (forget(id))
+            save();
+    }
+
+    /**
+     * @return The ID of the bundle with the given content or -1 if there isn't one.
+     */
+    synchronized long getBundleID(String digest) {
+        Entry entry = bundlesByDigest.get(digest);
+        if (entry == null)
+            return -1;
+
+        // The bundle may have been uninstalled or updated by someone else in the mean time
+        Bundle bundle = bundleContext.getBundle(entry.id);
+        if (bundle == null || bundle.getLastModified() != entry.lastModified) {
+            remove(entry.id);
+            return -1;
+        }
+        return entry.id;
+    }
+
+    /**
+     * @return The digest of the content of the given bundle or {@code null} if it's not known.
+     */
+    synchronized String getDigest(Bundle bundle) {
+        String digest = digestsByBundle.get(bundle.getBundleId());
+        if (digest == null)
+            return null;
+
+        Entry entry = bundlesByDigest.get(digest);
+        if (entry == null || entry.id != bundle.getBundleId() || bundle.getLastModified() != entry.lastModified)
+            return null;
+        return digest;
+    }
+
+    private void add(String digest, Entry entry) {
+        Entry old = bundlesByDigest.put(digest, entry);
+        if (old != null)
+            digestsByBundle.remove(old.id);
+        digestsByBundle.put(entry.id, digest);
+    }
+
+    private boolean forget(long id) {
+        String digest = digestsByBundle.remove(id);
+        if (digest == null)
+            return false;
+
+        // Only if the digest still maps to this bundle
+        Entry entry = bundlesByDigest.get(digest);
+        if (entry != null && entry.id == id)
+            bundlesByDigest.remove(digest);
+        return true;
+    }
+
+    private void save() {
+        if (file == null)
+            return;
+
+        Properties props = new Properties();
+        for (Map.Entry<String, Entry> e : bundlesByDigest.entrySet()) {
+            props.setProperty(e.getKey(), e.getValue().id + " " + e.getValue().lastModified);
+        }
+
+        // Written next to the index and moved over it, so that a crash never leaves half an index behind
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            OutputStream os = new FileOutputStream(tmp);
+            try {
+                props.store(os, null);
+            } finally {
+                os.close();
+            }
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+                throw new IOException("Unable to rename " + tmp + " to " + file);
+        } catch (IOException e) {
+            System.out.println("*** Unable to save the content index to " + file + ": " + e);
+            tmp.delete();
+        }
+    }
+
+    private static class Entry {
+        private final long id;
+        private final long lastModified;
+
+        Entry(long id, long lastModified) {
+            this.id = id;
+            this.lastModified = lastModified;
+        }
+    }
+}
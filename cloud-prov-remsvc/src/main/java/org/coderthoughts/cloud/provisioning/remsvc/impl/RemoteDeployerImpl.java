@@ -1,37 +1,107 @@
 package org.coderthoughts.cloud.provisioning.remsvc.impl;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
-import org.coderthoughts.cloud.provisioning.api.Base64;
+import org.coderthoughts.cloud.provisioning.api.Base64InputStream;
+import org.coderthoughts.cloud.provisioning.api.BundleDelta;
+import org.coderthoughts.cloud.provisioning.api.BundleInventory;
+import org.coderthoughts.cloud.provisioning.api.ContentDigest;
+import org.coderthoughts.cloud.provisioning.api.ContentEncoding;
+import org.coderthoughts.cloud.provisioning.api.DeploymentRequest;
+import org.coderthoughts.cloud.provisioning.api.DeploymentResult;
+import org.coderthoughts.cloud.provisioning.api.EntryDigests;
 import org.coderthoughts.cloud.provisioning.api.RemoteDeployer;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.packageadmin.PackageAdmin;
 
 public class RemoteDeployerImpl implements RemoteDeployer {
+    // Upload sessions that don't receive anything for this long are discarded
+    private static final long SESSION_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+    static final String SPOOL_THRESHOLD_PROPERTY = "org.coderthoughts.cloud.provisioning.spool.threshold";
+    static final long DEFAULT_SPOOL_THRESHOLD = 4 * 1024 * 1024;
+    static final String SPOOL_QUOTA_PROPERTY = "org.coderthoughts.cloud.provisioning.spool.quota";
+    static final long DEFAULT_SPOOL_QUOTA = 256 * 1024 * 1024;
+
     private final BundleContext bundleContext;
+    private final ConcurrentMap<String, UploadSession> uploadSessions = new ConcurrentHashMap<String, UploadSession>();
+    private final ContentIndex contentIndex;
+    private final BundleIndex bundleIndex;
+    private final Spool spool;
 
     public RemoteDeployerImpl(BundleContext context) {
         bundleContext = context;
+        contentIndex = new ContentIndex(context, context.getDataFile("content-index"));
+        bundleIndex = new BundleIndex(context);
+
+        // Large uploads are staged on disk, unless the framework has no file system support
+        spool = new Spool(context.getDataFile("spool"), getLongProperty(SPOOL_THRESHOLD_PROPERTY, DEFAULT_SPOOL_THRESHOLD),
+                getLongProperty(SPOOL_QUOTA_PROPERTY, DEFAULT_SPOOL_QUOTA));
+    }
+
+    void open() {
+        spool.open();
+        contentIndex.open();
+        bundleIndex.open();
+    }
+
+    void close() {
+        bundleIndex.close();
+        for (Iterator<UploadSession> it = uploadSessions.values().iterator(); it.hasNext(); ) {
+            it.next().discard();
+            it.remove();
+        }
+    }
+
+    private long getLongProperty(String key, long defaultValue) {
+        String value = bundleContext.getProperty(key);
+        if (value == null)
+            return defaultValue;
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("*** Invalid value for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
     }
 
     @Override
     public long[] listBundleIDs() {
-        Bundle[] bundles = bundleContext.getBundles();
-        long[] ids = new long[bundles.length];
-        for (int i=0; i < bundles.length; i++) {
-            ids[i] = bundles[i].getBundleId();
-        }
-        return ids;
+        return bundleIndex.listBundleIDs();
+    }
+
+    @Override
+    public BundleInventory getInventory() {
+        return bundleIndex.getInventory(contentIndex);
+    }
+
+    @Override
+    public BundleInventory getInventorySince(long generation) {
+        return bundleIndex.getInventorySince(generation, contentIndex);
     }
 
     @Override
     public long getBundleID(String location) {
-        for (Bundle b : bundleContext.getBundles()) {
-            if (b.getLocation().equals(location))
-                return b.getBundleId();
-        }
-        return -1;
+        return bundleIndex.getBundleID(location);
+    }
+
+    @Override
+    public long findBundleID(String symbolicName, String version) {
+        return bundleIndex.getBundleID(symbolicName, version);
     }
 
     @Override
@@ -42,11 +112,188 @@ public class RemoteDeployerImpl implements RemoteDeployer {
         return bundle.getSymbolicName();
     }
 
+    @Override
+    public long installIfAbsent(String location, String sha256) {
+        long id = contentIndex.getBundleID(sha256);
+        if (id != -1)
+            System.out.println("*** Content for " + location + " already present as bundle " + id);
+        return id;
+    }
+
+    @Override
+    public DeploymentResult[] deploy(DeploymentRequest[] requests) {
+        DeploymentResult[] results = new DeploymentResult[requests.length];
+        Bundle[] bundles = new Bundle[requests.length];
+        boolean complete = true;
+
+        // Install everything first
+        for (int i=0; i < requests.length; i++) {
+            results[i] = install(requests[i]);
+            if (results[i].getBundleID() == -1)
+                complete = false;
+            else
+                bundles[i] = bundleContext.getBundle(results[i].getBundleID());
+        }
+
+        // Starting a partial set would only fail on unresolved dependencies
+        if (!complete)
+            return results;
+
+        // Resolve the whole set in one go, then start
+        resolve(bundles);
+        for (int i=0; i < requests.length; i++) {
+            if (!requests[i].isStart())
+                continue;
+
+            try {
+                bundles[i].start();
+                results[i].setStarted(true);
+            } catch (Exception e) {
+                results[i].setStatus(DeploymentResult.FAILED);
+                results[i].setMessage(e.toString());
+            }
+        }
+        return results;
+    }
+
+    private DeploymentResult install(DeploymentRequest request) {
+        String location = request.getLocation();
+        try {
+            if (request.getData() != null) {
+                long id = request.getSha256() != null ? contentIndex.getBundleID(request.getSha256()) : -1;
+                if (id != -1 && id == getBundleID(location))
+                    return new DeploymentResult(location, id, DeploymentResult.PRESENT);
+
+                InputStream content = new ByteArrayInputStream(request.getData());
+                if (!TRANSFER_ENCODING_RAW.equals(request.getTransferEncoding()))
+                    content = new Base64InputStream(content);
+                content = ContentEncoding.decode(request.getContentEncoding(), content);
+                return new DeploymentResult(location, install(location, content), DeploymentResult.INSTALLED);
+            }
+
+            long id = request.getSha256() != null ? contentIndex.getBundleID(request.getSha256()) : getBundleID(location);
+            if (id == -1)
+                return new DeploymentResult(location, -1, DeploymentResult.CONTENT_REQUIRED);
+            return new DeploymentResult(location, id, DeploymentResult.PRESENT);
+        } catch (Exception e) {
+            DeploymentResult result = new DeploymentResult(location, -1, DeploymentResult.FAILED);
+            result.setMessage(e.toString());
+            return result;
+        }
+    }
+
+    @Override
+    public EntryDigests getEntryDigests(long id) {
+        try {
+            return BundleEntries.digest(getBundle(id));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read the entries of bundle " + id, e);
+        }
+    }
+
+    @Override
+    public long updateBundle(long id, BundleDelta delta) throws BundleException {
+        Bundle bundle = getBundle(id);
+        String digest = contentIndex.getDigest(bundle);
+        if (digest == null || !digest.equals(delta.getBaseSha256()))
+            throw new BundleException("Bundle " + id + " doesn't have the content the delta is based on: " + delta.getBaseSha256());
+
+        SpoolBuffer content = spool.newBuffer();
+        try {
+            // The bundle is indexed by what was actually rebuilt, not by what the sender says it is
+            MessageDigest md = ContentDigest.newDigest();
+            BundleEntries.apply(bundle, delta, new DigestOutputStream(content, md));
+            String rebuilt = ContentDigest.toHex(md.digest());
+            if (!rebuilt.equals(delta.getSha256()))
+                throw new BundleException("Bundle " + id + " rebuilt from the delta has content " + rebuilt + " instead of " + delta.getSha256());
+
+            System.out.println("*** Updating bundle " + id + " with " + delta);
+            bundle.update(content.getContent());
+            return indexContent(bundle, rebuilt);
+        } catch (IOException e) {
+            throw new BundleException("Unable to apply delta to bundle " + id, e);
+        } finally {
+            content.discard();
+        }
+    }
+
+    private void resolve(Bundle[] bundles) {
+        ServiceReference ref = bundleContext.getServiceReference(PackageAdmin.class.getName());
+        if (ref == null)
+            return;
+
+        try {
+            PackageAdmin packageAdmin = (PackageAdmin) bundleContext.getService(ref);
+            if (packageAdmin != null)
+                packageAdmin.resolveBundles(bundles);
+        } finally {
+            bundleContext.ungetService(ref);
+        }
+    }
+
     @Override
     public long installBundle(String location, byte [] base64Data) throws BundleException {
-        ByteArrayInputStream bais = new ByteArrayInputStream(Base64.decode(base64Data));
-        Bundle bundle = bundleContext.installBundle(location, bais);
-        return bundle.getBundleId();
+        // Decoded while the framework reads it, the decoded bundle is never held in memory as a whole
+        return install(location, new Base64InputStream(new ByteArrayInputStream(base64Data)));
+    }
+
+    @Override
+    public String beginInstall(String location) {
+        return beginEncodedInstall(location, CONTENT_ENCODING_IDENTITY);
+    }
+
+    @Override
+    public String beginEncodedInstall(String location, String contentEncoding) {
+        if (!ContentEncoding.isSupported(contentEncoding))
+            throw new IllegalArgumentException("Unsupported content encoding: " + contentEncoding);
+
+        expireUploadSessions();
+
+        String sessionID = UUID.randomUUID().toString();
+        uploadSessions.put(sessionID, new UploadSession(location, contentEncoding, spool.newBuffer()));
+        return sessionID;
+    }
+
+    @Override
+    public void appendChunk(String sessionID, byte[] base64Data) {
+        if (base64Data.length == 0)
+            return;
+
+        getUploadSession(sessionID).appendBase64(base64Data);
+    }
+
+    @Override
+    public void appendRawChunk(String sessionID, byte[] data) {
+        getUploadSession(sessionID).appendRaw(data);
+    }
+
+    @Override
+    public long commitInstall(String sessionID) throws BundleException {
+        UploadSession session = getUploadSession(sessionID);
+        try {
+            if (ContentEncoding.isIdentity(session.getContentEncoding()))
+                return install(session.getLocation(), session.getContent(), session.getDigest());
+
+            // The digest is of the decoded content, it's computed while installing
+            return install(session.getLocation(), ContentEncoding.decode(session.getContentEncoding(), session.getContent()));
+        } catch (IOException e) {
+            throw new BundleException("Unable to read content for " + session.getLocation(), e);
+        } finally {
+            uploadSessions.remove(sessionID);
+            session.discard();
+        }
+    }
+
+    @Override
+    public void abortInstall(String sessionID) {
+        UploadSession session = uploadSessions.remove(sessionID);
+        if (session != null)
+            session.discard();
+    }
+
+    @Override
+    public long installBundleRaw(String location, byte[] data) throws BundleException {
+        return install(location, new ByteArrayInputStream(data));
     }
 
     @Override
@@ -62,6 +309,75 @@ public class RemoteDeployerImpl implements RemoteDeployer {
     @Override
     public void uninstallBundle(long id) throws BundleException {
         getBundle(id).uninstall();
+        contentIndex.remove(id);
+    }
+
+    // Computes the digest of the content while the framework reads it
+    private long install(String location, InputStream content) throws BundleException {
+        final DigestInputStream in = new DigestInputStream(content, ContentDigest.newDigest());
+        Bundle bundle = installOrUpdate(location, null, new FilterInputStream(in) {
+            @Override
+            public void close() throws IOException {
+                // The framework may not read up to the end, the digest has to cover everything
+                byte[] buf = new byte[4096];
+                while (in.read(buf) != -1);
+                super.close();
+            }
+        });
+        return indexContent(bundle, ContentDigest.toHex(in.getMessageDigest().digest()));
+    }
+
+    private long install(String location, InputStream content, String digest) throws BundleException {
+        return indexContent(installOrUpdate(location, digest, content), digest);
+    }
+
+    /**
+     * @param digest The digest of the content if it's known up front, otherwise {@code null}.
+     */
+    private Bundle installOrUpdate(String location, String digest, InputStream content) throws BundleException {
+        long id = getBundleID(location);
+        if (id == -1)
+            return bundleContext.installBundle(location, content);
+
+        Bundle bundle = getBundle(id);
+        if (digest != null && contentIndex.getBundleID(digest) == id) {
+            // Already there, for example when the same content was uploaded twice concurrently
+            System.out.println("*** Content for " + location + " already present as bundle " + id + ", not updating");
+            try {
+                content.close();
+            } catch (IOException e) {
+                // Nothing was read from it
+            }
+            return bundle;
+        }
+
+        // New content for an existing location, update the bundle in place
+        bundle.update(content);
+        return bundle;
+    }
+
+    private long indexContent(Bundle bundle, String digest) {
+        contentIndex.put(bundle, digest);
+        bundleIndex.touch(bundle.getBundleId());
+        return bundle.getBundleId();
+    }
+
+    private UploadSession getUploadSession(String sessionID) {
+        UploadSession session = uploadSessions.get(sessionID);
+        if (session == null)
+            throw new IllegalStateException("No upload session with ID: " + sessionID);
+        return session;
+    }
+
+    private void expireUploadSessions() {
+        long expiry = System.currentTimeMillis() - SESSION_TIMEOUT;
+        for (Iterator<UploadSession> it = uploadSessions.values().iterator(); it.hasNext(); ) {
+            UploadSession session = it.next();
+            if (session.getLastAccess() < expiry) {
+                it.remove();
+                session.discard();
+            }
+        }
     }
 
     private Bundle getBundle(long id) {
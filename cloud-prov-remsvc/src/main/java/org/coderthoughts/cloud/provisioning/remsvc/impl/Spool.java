@@ -0,0 +1,63 @@
+package org.coderthoughts.cloud.provisioning.remsvc.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Disk space for bundle content that is too large to stage on the heap. Content is kept in memory up to a
+ * threshold and moved to a file in the spool directory beyond that, see {@link SpoolBuffer}. The space used
+ * by all spool files together is limited by a quota.
+ */
+class Spool {
+    private final File directory;
+    private final long threshold;
+    private final long quota;
+    private long used; // Guarded by this
+
+    /**
+     * @param directory The directory to create the spool files in, or {@code null} to keep everything in memory.
+     * @param threshold The size from which content is moved to disk.
+     * @param quota The maximum number of bytes in spool files at any time.
+     */
+    Spool(File directory, long threshold, long quota) {
+        this.directory = directory;
+        this.threshold = threshold;
+        this.quota = quota;
+    }
+
+    void open() {
+        if (directory == null)
+            return;
+
+        // Anything still there was left behind by a crash
+        directory.mkdirs();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    SpoolBuffer newBuffer() {
+        return new SpoolBuffer(this, directory != null ? threshold : Long.MAX_VALUE);
+    }
+
+    File createFile() throws IOException {
+        return File.createTempFile("content", ".jar", directory);
+    }
+
+    synchronized void reserve(long bytes) throws IOException {
+        if (used + bytes > quota)
+            throw new IOException("Spool quota of " + quota + " bytes exceeded, " + used + " bytes in use");
+        used += bytes;
+    }
+
+    synchronized void release(long bytes) {
+        used -= bytes;
+    }
+
+    synchronized long getUsed() {
+        return used;
+    }
+}
@@ -0,0 +1,150 @@
+package org.coderthoughts.cloud.provisioning.remsvc.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.coderthoughts.cloud.provisioning.api.Base64;
+
+/**
+ * Stages content in memory, and in a {@link Spool} file once it grows beyond the spool threshold. The
+ * space taken is given back by {@link #discard()}, or when the stream returned by {@link #getContent()}
+ * is closed. The content can only be taken once.
+ */
+class SpoolBuffer extends OutputStream {
+    private final Spool spool;
+    private final long threshold;
+
+    // Guarded by this, only one of buf and out is in use at any time
+    private byte[] buf = new byte[32];
+    private int count;
+    private File file;
+    private OutputStream out;
+    private long size;
+    private long reserved;
+    private boolean taken;
+
+    SpoolBuffer(Spool spool, long threshold) {
+        this.spool = spool;
+        this.threshold = threshold;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (out == null && size + len > threshold)
+            moveToDisk();
+
+        if (out != null) {
+            spool.reserve(len);
+            reserved += len;
+            out.write(b, off, len);
+        } else {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+        size += len;
+    }
+
+    /**
+     * Decode base64 data and append it, updating the digest with the decoded bytes.
+     */
+    synchronized void writeBase64(byte[] base64Data, MessageDigest md) throws IOException {
+        int length = Base64.decodedLength(base64Data, 0, base64Data.length);
+        if (out == null && size + length <= threshold) {
+            // Decode straight into the buffer, no intermediate array
+            ensureCapacity(count + length);
+            int decoded = Base64.decode(base64Data, 0, base64Data.length, buf, count);
+            md.update(buf, count, decoded);
+            count += decoded;
+            size += decoded;
+        } else {
+            byte[] decoded = Base64.decode(base64Data, 0, base64Data.length);
+            md.update(decoded);
+            write(decoded, 0, decoded.length);
+        }
+    }
+
+    /**
+     * @return The content written. Closing the stream discards this buffer.
+     * @throws IllegalStateException If the content was taken before.
+     */
+    synchronized InputStream getContent() throws IOException {
+        if (taken)
+            throw new IllegalStateException("The content of this buffer has been taken already");
+        taken = true;
+
+        InputStream in;
+        if (out == null) {
+            in = new ByteArrayInputStream(buf, 0, count);
+        } else {
+            out.close();
+            out = null;
+            in = new FileInputStream(file);
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    discard();
+                }
+            }
+        };
+    }
+
+    /**
+     * Give back the memory and disk space taken. Can be called more than once.
+     */
+    synchronized void discard() {
+        buf = new byte[0];
+        count = 0;
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Deleted below anyway
+            }
+            out = null;
+        }
+        if (file != null) {
+            if (!file.delete())
+                file.deleteOnExit();
+            file = null;
+        }
+        spool.release(reserved);
+        reserved = 0;
+    }
+
+    private void moveToDisk() throws IOException {
+        spool.reserve(count);
+        reserved = count;
+        file = spool.createFile();
+        out = new FileOutputStream(file);
+        out.write(buf, 0, count);
+        buf = new byte[0];
+        count = 0;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(needed, buf.length * 2));
+    }
+}
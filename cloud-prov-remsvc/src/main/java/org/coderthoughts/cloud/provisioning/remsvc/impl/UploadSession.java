@@ -0,0 +1,74 @@
+package org.coderthoughts.cloud.provisioning.remsvc.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+import org.coderthoughts.cloud.provisioning.api.ContentDigest;
+
+class UploadSession {
+    private final String location;
+    private final String contentEncoding;
+    private final SpoolBuffer buffer;
+    private final MessageDigest digest = ContentDigest.newDigest();
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    UploadSession(String location, String contentEncoding, SpoolBuffer buffer) {
+        this.location = location;
+        this.contentEncoding = contentEncoding;
+        this.buffer = buffer;
+    }
+
+    String getLocation() {
+        return location;
+    }
+
+    String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    synchronized void appendBase64(byte[] base64Data) {
+        try {
+            buffer.writeBase64(base64Data, digest);
+        } catch (IOException e) {
+            throw new RuntimeException("exception staging base64 chunk", e);
+        }
+        lastAccess = System.currentTimeMillis();
+    }
+
+    synchronized void appendRaw(byte[] data) {
+        try {
+            buffer.write(data);
+        } catch (IOException e) {
+            throw new RuntimeException("exception staging chunk", e);
+        }
+        digest.update(data);
+        lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * @return The content received. Closing the stream discards the session's staged content.
+     */
+    synchronized InputStream getContent() throws IOException {
+        return buffer.getContent();
+    }
+
+    /**
+     * @return The {@link ContentDigest} of all the content received. Can only be called once, and only
+     * means something if the content isn't encoded.
+     */
+    synchronized String getDigest() {
+        return ContentDigest.toHex(digest.digest());
+    }
+
+    /**
+     * Give back the memory and spool space taken by the content received.
+     */
+    void discard() {
+        buffer.discard();
+    }
+}
@@ -0,0 +1,143 @@
+package org.coderthoughts.cloud.provisioning.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class Base64Test {
+    private final Random random = new Random(42);
+
+    @Test
+    public void testRoundTripAgainstJdk() throws Exception {
+        // Every length up to a few blocks of the unrolled loop, so that all padding variants are covered
+        for (int length = 0; length < 300; length++) {
+            byte[] data = randomBytes(length);
+            byte[] expected = java.util.Base64.getEncoder().encode(data);
+
+            byte[] encoded = Base64.encode(data);
+            assertArrayEquals("encode " + length, expected, encoded);
+            assertEquals("encodedLength " + length, expected.length, Base64.encodedLength(length));
+            assertEquals("decodedLength " + length, length, Base64.decodedLength(encoded, 0, encoded.length));
+            assertArrayEquals("decode " + length, data, Base64.decode(encoded));
+            assertArrayEquals("decode String " + length, data, Base64.decode(new String(encoded, "US-ASCII")));
+        }
+    }
+
+    @Test
+    public void testPadding() throws Exception {
+        String[][] vectors = {{"", ""}, {"f", "Zg=="}, {"fo", "Zm8="}, {"foo", "Zm9v"}, {"foob", "Zm9vYg=="},
+                {"fooba", "Zm9vYmE="}, {"foobar", "Zm9vYmFy"}};
+        for (String[] vector : vectors) {
+            byte[] data = vector[0].getBytes("US-ASCII");
+            assertEquals(vector[1], new String(Base64.encode(data), "US-ASCII"));
+            assertArrayEquals(vector[1], data, Base64.decode(vector[1].getBytes("US-ASCII")));
+
+            // Also without the padding, as java.util.Base64 does
+            String unpadded = vector[1].replace("=", "");
+            assertArrayEquals(unpadded, java.util.Base64.getDecoder().decode(unpadded),
+                    Base64.decode(unpadded.getBytes("US-ASCII")));
+        }
+    }
+
+    @Test
+    public void testSlices() throws Exception {
+        byte[] data = randomBytes(1000);
+        for (int offset = 0; offset < 7; offset++) {
+            for (int length = 0; length < 50; length++) {
+                byte[] slice = Arrays.copyOfRange(data, offset, offset + length);
+                byte[] expected = java.util.Base64.getEncoder().encode(slice);
+                assertArrayEquals(java.util.Base64.getEncoder().encode(slice), Base64.encode(data, offset, length));
+
+                // Encoded into the middle of an array, nothing around it is touched
+                byte[] out = new byte[expected.length + 10];
+                Arrays.fill(out, (byte) '#');
+                assertEquals(expected.length, Base64.encode(data, offset, length, out, 5));
+                assertArrayEquals(expected, Arrays.copyOfRange(out, 5, 5 + expected.length));
+                assertEquals('#', out[4]);
+                assertEquals('#', out[5 + expected.length]);
+
+                // Decoded from the middle of an array
+                byte[] in = new byte[expected.length + 6];
+                Arrays.fill(in, (byte) '*');
+                System.arraycopy(expected, 0, in, 3, expected.length);
+                assertArrayEquals(slice, Base64.decode(in, 3, expected.length));
+                byte[] decoded = new byte[Base64.decodedLength(in, 3, expected.length) + 2];
+                assertEquals(length, Base64.decode(in, 3, expected.length, decoded, 1));
+                assertArrayEquals(slice, Arrays.copyOfRange(decoded, 1, 1 + length));
+            }
+        }
+    }
+
+    @Test
+    public void testWhitespace() throws Exception {
+        for (int length : new int[] {0, 1, 2, 3, 57, 58, 1000}) {
+            byte[] data = randomBytes(length);
+
+            // Line breaks every 76 characters, as in MIME
+            byte[] mime = java.util.Base64.getMimeEncoder().encode(data);
+            assertArrayEquals(data, Base64.decode(mime));
+            assertArrayEquals(data, Base64.decode(new String(mime, "US-ASCII")));
+
+            // Spaces and tabs anywhere, and trailing whitespace
+            String encoded = java.util.Base64.getEncoder().encodeToString(data);
+            StringBuilder spaced = new StringBuilder();
+            for (int i = 0; i < encoded.length(); i++) {
+                spaced.append(encoded.charAt(i));
+                if (i % 5 == 2)
+                    spaced.append(i % 2 == 0 ? ' ' : '\t');
+            }
+            spaced.append("\r\n");
+            assertArrayEquals(data, Base64.decode(spaced.toString().getBytes("US-ASCII")));
+            assertArrayEquals(data, Base64.decode(spaced.toString()));
+        }
+    }
+
+    @Test
+    public void testInvalidCharacters() throws Exception {
+        String valid = java.util.Base64.getEncoder().encodeToString(randomBytes(30));
+        for (char c : new char[] {'*', '-', '_', '.', '\u0000', '\u00e9'}) {
+            for (int position : new int[] {0, 1, 17, valid.length() - 1}) {
+                byte[] invalid = valid.getBytes("ISO-8859-1");
+                invalid[position] = (byte) c;
+                try {
+                    Base64.decode(invalid, 0, invalid.length, new byte[invalid.length], 0);
+                    fail("Accepted " + (int) c + " at " + position);
+                } catch (IOException e) {
+                    // Expected
+                }
+                try {
+                    Base64.decode(invalid);
+                    fail("Accepted " + (int) c + " at " + position);
+                } catch (RuntimeException e) {
+                    // Expected
+                }
+                try {
+                    Base64.decode(new String(invalid, "ISO-8859-1"));
+                    fail("Accepted " + (int) c + " at " + position + " in a String");
+                } catch (RuntimeException e) {
+                    // Expected
+                }
+            }
+        }
+
+        // A single digit left over can't be decoded
+        try {
+            Base64.decode("Zm9vY".getBytes("US-ASCII"));
+            fail("Accepted truncated data");
+        } catch (RuntimeException e) {
+            // Expected
+        }
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+}